@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sms;
+
+import com.google.android.voicemail.example.spec.Omtp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the time taken to split OMTP SMS bodies into their fields by {@link OmtpSmsTokenizer}
+ * with the String.split() based parsing it replaced, and the time taken by a full parse.
+ * <p>
+ * This is a standalone harness run on a desktop JVM; it is not part of the app. From the root of
+ * the project:
+ *
+ * <pre>
+ *   $ mkdir -p bin/benchmark
+ *   $ javac -d bin/benchmark -sourcepath src:deps/jsr305/src \
+ *         benchmark/src/com/google/android/voicemail/example/sms/SmsParserBenchmark.java
+ *   $ java -cp bin/benchmark com.google.android.voicemail.example.sms.SmsParserBenchmark
+ * </pre>
+ *
+ * Before timing anything, the values found by both ways of splitting are checked to be the same
+ * for every sample body.
+ */
+/*package*/ final class SmsParserBenchmark {
+    private static final String[] SAMPLE_BODIES = {
+        Omtp.SYNC_SMS_PREFIX + "ev=NM;id=3446456;c=1;t=v;s=01234567898;l=30",
+        Omtp.SYNC_SMS_PREFIX + "ev=NM;id=3446456;c=1;t=v;s=01234567898;dt=02/08/2008 12:53 +0200;"
+                + "l=30",
+        Omtp.STATUS_SMS_PREFIX + "st=R;rc=0;srv=imap.example.com;tui=123;dn=999;ipt=143;"
+                + "u=user;pw=secret;lang=eng;g_len=25;vs_len=15;spt=25",
+    };
+    private static final Omtp.SyncSmsField[] SYNC_FIELDS = Omtp.SyncSmsField.values();
+    private static final Omtp.StatusSmsField[] STATUS_FIELDS = Omtp.StatusSmsField.values();
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+    private static final int ITERATIONS_PER_ROUND = 200000;
+
+    /** Consumed by every iteration, so that the JIT cannot drop the work being measured. */
+    private static int sSink;
+
+    private SmsParserBenchmark() {
+    }
+
+    /** One way of processing an SMS body, timed by {@link #measure}. */
+    private abstract static class Task {
+        private final String mName;
+
+        public Task(String name) {
+            mName = name;
+        }
+
+        /** Processes the body, and returns a value depending on the result. */
+        public abstract int run(String smsBody) throws OmtpParseException;
+    }
+
+    public static void main(String[] args) throws OmtpParseException {
+        for (String body : SAMPLE_BODIES) {
+            checkSameValues(body);
+        }
+        final SmsParser parser =
+                new SmsParserImpl(TimestampParser.compile(Omtp.DATE_TIME_FORMAT));
+        Task[] tasks = {
+            new Task("split (before)") {
+                @Override
+                public int run(String smsBody) throws OmtpParseException {
+                    Map<String, String> fields = legacySplit(smsBody);
+                    int result = 0;
+                    for (Omtp.Field field : fieldsOf(smsBody)) {
+                        String value = fields.get(field.getKey());
+                        result += value == null ? 0 : value.length();
+                    }
+                    return result;
+                }
+            },
+            new Task("tokenizer (after)") {
+                @Override
+                public int run(String smsBody) throws OmtpParseException {
+                    int result = 0;
+                    for (String value : tokenize(smsBody)) {
+                        result += value == null ? 0 : value.length();
+                    }
+                    return result;
+                }
+            },
+            new Task("full parse") {
+                @Override
+                public int run(String smsBody) throws OmtpParseException {
+                    return parser.parse(smsBody).hashCode();
+                }
+            },
+        };
+        for (String body : SAMPLE_BODIES) {
+            System.out.println(body);
+            for (Task task : tasks) {
+                measure(task, body);
+            }
+        }
+        // Printed so that the sink is used.
+        System.out.println("(" + sSink + ")");
+    }
+
+    /** Times the task on the body, and prints the best and median time per iteration. */
+    private static void measure(Task task, String smsBody) throws OmtpParseException {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            runRound(task, smsBody);
+        }
+        long[] nanos = new long[MEASURED_ROUNDS];
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            nanos[round] = runRound(task, smsBody);
+        }
+        Arrays.sort(nanos);
+        System.out.println(String.format("  %-18s best %7.1f ns, median %7.1f ns", task.mName,
+                (double) nanos[0] / ITERATIONS_PER_ROUND,
+                (double) nanos[MEASURED_ROUNDS / 2] / ITERATIONS_PER_ROUND));
+    }
+
+    /** Returns the time taken by one round of the task. */
+    private static long runRound(Task task, String smsBody) throws OmtpParseException {
+        int sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS_PER_ROUND; i++) {
+            sink += task.run(smsBody);
+        }
+        long elapsed = System.nanoTime() - start;
+        sSink += sink;
+        return elapsed;
+    }
+
+    /** Throws if the tokenizer does not find the same values as the split based parsing. */
+    private static void checkSameValues(String smsBody) throws OmtpParseException {
+        Map<String, String> expected = legacySplit(smsBody);
+        String[] values = tokenize(smsBody);
+        Omtp.Field[] fields = fieldsOf(smsBody);
+        for (int i = 0; i < fields.length; i++) {
+            String key = fields[i].getKey();
+            if (!String.valueOf(expected.get(key)).equals(String.valueOf(values[i]))) {
+                throw new IllegalStateException(String.format(
+                        "Different values for %s in %s: %s before, %s after", key, smsBody,
+                        expected.get(key), values[i]));
+            }
+        }
+    }
+
+    private static Omtp.Field[] fieldsOf(String smsBody) {
+        return smsBody.startsWith(Omtp.SYNC_SMS_PREFIX) ? SYNC_FIELDS : STATUS_FIELDS;
+    }
+
+    private static String[] tokenize(String smsBody) throws OmtpParseException {
+        if (smsBody.startsWith(Omtp.SYNC_SMS_PREFIX)) {
+            return OmtpSmsTokenizer.tokenize(smsBody, Omtp.SYNC_SMS_PREFIX.length(), SYNC_FIELDS);
+        }
+        return OmtpSmsTokenizer.tokenize(smsBody, Omtp.STATUS_SMS_PREFIX.length(), STATUS_FIELDS);
+    }
+
+    /**
+     * Splits the body as the parser did before {@link OmtpSmsTokenizer}, including the copy of the
+     * map made by the message data.
+     */
+    private static Map<String, String> legacySplit(String smsBody) throws OmtpParseException {
+        String prefix = smsBody.startsWith(Omtp.SYNC_SMS_PREFIX)
+                ? Omtp.SYNC_SMS_PREFIX : Omtp.STATUS_SMS_PREFIX;
+        Map<String, String> keyValues = new HashMap<String, String>();
+        String[] entries = smsBody.substring(prefix.length()).split(Omtp.SMS_FIELD_SEPARATOR);
+        for (String entry : entries) {
+            String[] keyValue = entry.split(Omtp.SMS_KEY_VALUE_SEPARATOR);
+            if (keyValue.length != 2) {
+                throw new OmtpParseException("Cannot extract key-value from: " + entry);
+            }
+            keyValues.put(keyValue[0].trim(), keyValue[1].trim());
+        }
+        return new HashMap<String, String>(keyValues);
+    }
+}
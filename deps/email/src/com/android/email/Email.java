@@ -61,18 +61,38 @@ public class Email {
      */
     public static final int VISIBLE_LIMIT_INCREMENT = 25;
 
-    private static File sTempDirectory;
+    /**
+     * The maximum number of bytes held in temp files at any time. Voicemail messages are far
+     * smaller than this, it only guards against leaking disk space.
+     */
+    private static final long TEMP_DIRECTORY_QUOTA_BYTES = 64 * 1024 * 1024;
 
-    public static void setTempDirectory(Context context) {
-        sTempDirectory = context.getCacheDir();
+    private static TempFileManager sTempFileManager;
+
+    /**
+     * Sets the directory used for temp files to the cache directory of the given context.
+     * <p>
+     * The first time this is called, temp files left behind by a previous process are deleted.
+     * Subsequent calls for the same directory have no effect.
+     */
+    public static synchronized void setTempDirectory(Context context) {
+        File directory = context.getCacheDir();
+        if (sTempFileManager == null || !sTempFileManager.getDirectory().equals(directory)) {
+            sTempFileManager = new TempFileManager(directory, TEMP_DIRECTORY_QUOTA_BYTES);
+            sTempFileManager.sweepOrphans();
+        }
     }
 
     public static File getTempDirectory() {
-        if (sTempDirectory == null) {
+        return getTempFileManager().getDirectory();
+    }
+
+    public static synchronized TempFileManager getTempFileManager() {
+        if (sTempFileManager == null) {
             throw new RuntimeException(
                     "TempDirectory not set.  " +
                     "If in a unit test, call Email.setTempDirectory(context) in setUp().");
         }
-        return sTempDirectory;
+        return sTempFileManager;
     }
 }
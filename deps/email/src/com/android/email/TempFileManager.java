@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.email;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Manages the temp files used to hold IMAP literals and message bodies.
+ * <p>
+ * Each file is tied to an owner object. The file is deleted when the owner calls
+ * {@link TrackedFile#delete()}, or otherwise once the owner has been garbage collected, using a
+ * phantom reference in the same way as {@link org.apache.commons.io.FileCleaningTracker}. Unlike
+ * the commons-io tracker, this does not need a reaper thread nor finalizers: collected files are
+ * reaped whenever a new file is created. It also keeps count of the bytes held in temp files, so
+ * that a disk quota can be enforced.
+ * <p>
+ * Files left behind by a previous process are removed by {@link #sweepOrphans()}.
+ */
+public class TempFileManager {
+    /** The prefix of temp files holding IMAP literals. */
+    public static final String LITERAL_PREFIX = "imap";
+    /** The prefix of temp files holding decoded message bodies. */
+    public static final String BODY_PREFIX = "body";
+
+    /** The suffix of all the files created by this class. */
+    private static final String SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mQuotaBytes;
+    private final ReferenceQueue<Object> mQueue = new ReferenceQueue<Object>();
+    /** Keeps the trackers reachable until their file is deleted. */
+    private final Set<TrackedFile> mTrackedFiles = new HashSet<TrackedFile>();
+    private long mUsedBytes;
+
+    /**
+     * @param directory the directory in which to create temp files
+     * @param quotaBytes the maximum number of bytes that can be held in temp files at any time
+     */
+    public TempFileManager(File directory, long quotaBytes) {
+        mDirectory = directory;
+        mQuotaBytes = quotaBytes;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Creates a new temp file, which will be deleted at the latest after the owner is garbage
+     * collected.
+     *
+     * @param prefix the prefix of the file name, either {@link #LITERAL_PREFIX} or
+     *        {@link #BODY_PREFIX}
+     * @param owner the object whose lifetime bounds that of the file
+     * @param expectedLength the number of bytes that will be written to the file, if known, or 0
+     *        otherwise, in which case {@link TrackedFile#setLength(long)} should be called after
+     *        writing it
+     * @throws IOException if the file cannot be created or the quota would be exceeded
+     */
+    public TrackedFile createTempFile(String prefix, Object owner, long expectedLength)
+            throws IOException {
+        reap();
+        synchronized (this) {
+            if (mUsedBytes + expectedLength > mQuotaBytes) {
+                throw new IOException("Temp file quota exceeded: " + mUsedBytes + " + "
+                        + expectedLength + " > " + mQuotaBytes + " bytes");
+            }
+            mUsedBytes += expectedLength;
+        }
+        File file;
+        try {
+            file = File.createTempFile(prefix, SUFFIX, mDirectory);
+        } catch (IOException e) {
+            release(expectedLength);
+            throw e;
+        }
+        TrackedFile trackedFile = new TrackedFile(file, expectedLength, owner, mQueue);
+        synchronized (this) {
+            mTrackedFiles.add(trackedFile);
+        }
+        return trackedFile;
+    }
+
+    /**
+     * Returns the number of bytes currently accounted for by live temp files.
+     */
+    public synchronized long getUsedBytes() {
+        return mUsedBytes;
+    }
+
+    /**
+     * Deletes the files whose owner has been garbage collected without deleting them.
+     */
+    public void reap() {
+        TrackedFile trackedFile;
+        while ((trackedFile = (TrackedFile) mQueue.poll()) != null) {
+            if (Email.DEBUG) {
+                Log.d(Email.LOG_TAG, "Reaping unreleased temp file " + trackedFile.mFile);
+            }
+            trackedFile.delete();
+        }
+    }
+
+    /**
+     * Deletes all the temp files in the directory that are not tracked by this instance, i.e.,
+     * the ones left behind by a previous process that did not get to delete them.
+     */
+    public void sweepOrphans() {
+        File[] files = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX)
+                        && (name.startsWith(LITERAL_PREFIX) || name.startsWith(BODY_PREFIX));
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        Set<File> tracked = new HashSet<File>();
+        synchronized (this) {
+            for (TrackedFile trackedFile : mTrackedFiles) {
+                tracked.add(trackedFile.mFile);
+            }
+        }
+        for (File file : files) {
+            if (!tracked.contains(file) && !file.delete()) {
+                Log.w(Email.LOG_TAG, "Failed to remove orphaned temp file " + file);
+            }
+        }
+    }
+
+    private synchronized void release(long length) {
+        mUsedBytes -= length;
+    }
+
+    /**
+     * A temp file created by {@link TempFileManager#createTempFile(String, Object, long)}.
+     * <p>
+     * It holds no reference to its owner, so the owner can keep a reference to it.
+     */
+    public final class TrackedFile extends PhantomReference<Object> {
+        private final File mFile;
+        private long mLength;
+        private boolean mDeleted;
+
+        private TrackedFile(File file, long length, Object owner, ReferenceQueue<Object> queue) {
+            super(owner, queue);
+            mFile = file;
+            mLength = length;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * Updates the number of bytes accounted for this file, once its final length is known.
+         */
+        public void setLength(long length) {
+            synchronized (TempFileManager.this) {
+                if (!mDeleted) {
+                    mUsedBytes += length - mLength;
+                    mLength = length;
+                }
+            }
+        }
+
+        /**
+         * Deletes the file and stops tracking it. Calling this more than once has no effect.
+         */
+        public void delete() {
+            synchronized (TempFileManager.this) {
+                if (mDeleted) {
+                    return;
+                }
+                mDeleted = true;
+                mTrackedFiles.remove(this);
+                mUsedBytes -= mLength;
+            }
+            clear();
+            if (mFile.exists() && !mFile.delete()) {
+                Log.w(Email.LOG_TAG, "Failed to remove temp file " + mFile);
+            }
+        }
+    }
+}
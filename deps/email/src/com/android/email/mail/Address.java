@@ -75,6 +75,10 @@ public class Address {
         setAddress(address);
     }
 
+    /** Used by {@link #parseSimple(String)}, which sets the fields directly. */
+    private Address() {
+    }
+
     public String getAddress() {
         return mAddress;
     }
@@ -141,6 +145,11 @@ public class Address {
         if (addressList == null || addressList.length() == 0) {
             return EMPTY_ADDRESS_ARRAY;
         }
+        // Most headers hold a single plain address, which can be handled without the tokenizer.
+        Address simple = parseSimple(addressList);
+        if (simple != null) {
+            return new Address[] { simple };
+        }
         Rfc822Token[] tokens = Rfc822Tokenizer.tokenize(addressList);
         ArrayList<Address> addresses = new ArrayList<Address>();
         for (int i = 0, length = tokens.length; i < length; ++i) {
@@ -159,6 +168,108 @@ public class Address {
         return addresses.toArray(new Address[] {});
     }
     
+    /**
+     * Single-pass parser for the common forms of a single address:
+     *   address
+     *   "name" <address>
+     *   name <address>
+     *
+     * Only the resulting strings are allocated. Anything else, e.g. lists, comments, escapes,
+     * encoded words or invalid addresses, makes this return null so that the caller can fall back
+     * to the full tokenizer.
+     *
+     * @return the parsed address, or null if the input is not in one of the forms above.
+     */
+    /* package */ static Address parseSimple(String addressList) {
+        int start = 0;
+        int end = addressList.length();
+        while (start < end && addressList.charAt(start) == ' ') {
+            ++start;
+        }
+        while (end > start && addressList.charAt(end - 1) == ' ') {
+            --end;
+        }
+        if (start == end) {
+            return null;
+        }
+
+        String personal = null;
+        int addressStart;
+        int addressEnd;
+        if (addressList.charAt(end - 1) != '>') {
+            // Bare address.
+            addressStart = start;
+            addressEnd = end;
+        } else {
+            int open;
+            if (addressList.charAt(start) == '"') {
+                int close = addressList.indexOf('"', start + 1);
+                if (close == -1 || !isSimplePersonal(addressList, start + 1, close, true)) {
+                    return null;
+                }
+                open = close + 1;
+                while (open < end && addressList.charAt(open) == ' ') {
+                    ++open;
+                }
+                if (open == end || addressList.charAt(open) != '<') {
+                    return null;
+                }
+                if (close > start + 1) {
+                    personal = addressList.substring(start + 1, close);
+                }
+            } else {
+                open = addressList.indexOf('<', start);
+                int nameEnd = open;
+                while (nameEnd > start && addressList.charAt(nameEnd - 1) == ' ') {
+                    --nameEnd;
+                }
+                if (!isSimplePersonal(addressList, start, nameEnd, false)) {
+                    return null;
+                }
+                if (nameEnd > start) {
+                    personal = addressList.substring(start, nameEnd);
+                }
+            }
+            addressStart = open + 1;
+            addressEnd = end - 1;
+        }
+
+        for (int i = addressStart; i < addressEnd; ++i) {
+            char c = addressList.charAt(i);
+            if (c <= ' ' || c >= 0x7f || "\"(),:;<>[\\]".indexOf(c) != -1) {
+                return null;
+            }
+        }
+        String address = addressList.substring(addressStart, addressEnd);
+        if (!isValidAddress(address)) {
+            return null;
+        }
+        // The address and personal are already in their canonical form, so bypass the setters.
+        Address result = new Address();
+        result.mAddress = address;
+        result.mPersonal = personal;
+        return result;
+    }
+
+    /**
+     * Returns whether the given range of a personal name can be used as is, i.e., it needs no
+     * unquoting or decoding and would be tokenized in the same way by the full tokenizer.
+     */
+    private static boolean isSimplePersonal(String s, int start, int end, boolean quoted) {
+        char previous = 0;
+        for (int i = start; i < end; ++i) {
+            char c = s.charAt(i);
+            if (c < ' ' || c == '\\' || (c == '?' && previous == '=')) {
+                return false;
+            }
+            if (!quoted && ("\"(),:;<>@[]".indexOf(c) != -1 || (c == ' ' && previous == ' '))) {
+                return false;
+            }
+            previous = c;
+        }
+        return true;
+    }
+
     /** 
      * Checks whether a string email address is valid.
      * E.g. name@domain.com is valid.
@@ -16,6 +16,8 @@
 
 package com.android.email.mail;
 
+import com.android.email.mail.internet.MimePartExtractor;
+
 import java.util.ArrayList;
 
 /**
@@ -28,6 +30,9 @@ import java.util.ArrayList;
  *      Part:                   Indicates that the given Part should be fetched. The provider
  *                              is expected have previously created the given BodyPart and stored
  *                              any information it needs to download the content.
+ *      MimePartExtractor:      Together with FetchProfile.Item.BODY, indicates that only the
+ *                              first matching part of the body should be decoded, into the
+ *                              extractor's sink, rather than the whole message being parsed.
  * </pre>
  */
 public class FetchProfile extends ArrayList<Fetchable> {
@@ -82,4 +87,17 @@ public class FetchProfile extends ArrayList<Fetchable> {
         }
         return null;
     }
+
+    /**
+     * @return the first {@link MimePartExtractor} in this collection, or null if it doesn't
+     * contain one.
+     */
+    public MimePartExtractor getFirstPartExtractor() {
+        for (Fetchable o : this) {
+            if (o instanceof MimePartExtractor) {
+                return (MimePartExtractor) o;
+            }
+        }
+        return null;
+    }
 }
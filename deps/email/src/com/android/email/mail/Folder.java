@@ -70,6 +70,18 @@ public abstract class Folder {
      */
     public abstract void close(boolean expunge) throws MessagingException;
 
+    /**
+     * Ends the session of the folder from any thread, so that the command in progress, if any,
+     * fails straight away rather than when the server answers or the socket read times out.
+     * Commands issued afterwards fail as well, until the folder is opened again.
+     * Note: Not typically needed by local stores, so not abstract.
+     *
+     * @throws MessagingException
+     */
+    public void abort() throws MessagingException {
+        throw new MessagingException("Not implemented");
+    }
+
     /**
      * @return True if further commands are not expected to have to open the
      *         connection.
@@ -17,6 +17,7 @@
 package com.android.email.mail.internet;
 
 import com.android.email.Email;
+import com.android.email.TempFileManager;
 import com.android.email.mail.Body;
 import com.android.email.mail.MessagingException;
 
@@ -29,6 +30,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -41,6 +43,8 @@ import java.io.OutputStream;
  */
 public class BinaryTempFileBody implements Body {
     private File mFile;
+    /** Set if the file was created by {@link #getOutputStream()}, null for a supplied file. */
+    private TempFileManager.TrackedFile mTrackedFile;
 
     /**
      * An alternate way to put data into a BinaryTempFileBody is to simply supply an already-
@@ -49,12 +53,27 @@ public class BinaryTempFileBody implements Body {
      */
     public void setFile(String filePath) {
         mFile = new File(filePath);
+        mTrackedFile = null;
     }
 
     public OutputStream getOutputStream() throws IOException {
-        mFile = File.createTempFile("body", null, Email.getTempDirectory());
-        mFile.deleteOnExit();
-        return new FileOutputStream(mFile);
+        // The length is not known until the stream is closed, at which point it is accounted for.
+        mTrackedFile = Email.getTempFileManager().createTempFile(
+                TempFileManager.BODY_PREFIX, this, 0);
+        mFile = mTrackedFile.getFile();
+        final TempFileManager.TrackedFile trackedFile = mTrackedFile;
+        return new FilterOutputStream(new FileOutputStream(mFile)) {
+            @Override
+            public void write(byte[] buffer, int offset, int count) throws IOException {
+                out.write(buffer, offset, count);
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                trackedFile.setLength(trackedFile.getFile().length());
+            }
+        };
     }
 
     public InputStream getInputStream() throws MessagingException {
@@ -72,7 +91,15 @@ public class BinaryTempFileBody implements Body {
             out, Base64.CRLF | Base64.NO_CLOSE);
         IOUtils.copy(in, base64Out);
         base64Out.close();
-        mFile.delete();
+        deleteFile();
+    }
+
+    private void deleteFile() {
+        if (mTrackedFile != null) {
+            mTrackedFile.delete();
+        } else {
+            mFile.delete();
+        }
     }
 
     class BinaryTempFileBodyInputStream extends FilterInputStream {
@@ -83,7 +110,7 @@ public class BinaryTempFileBody implements Body {
         @Override
         public void close() throws IOException {
             super.close();
-            mFile.delete();
+            deleteFile();
         }
     }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.email.mail.internet;
+
+import com.android.email.mail.Fetchable;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.AbstractContentHandler;
+import org.apache.james.mime4j.BodyDescriptor;
+import org.apache.james.mime4j.EOLConvertingInputStream;
+import org.apache.james.mime4j.MimeStreamParser;
+import org.apache.james.mime4j.decoder.Base64InputStream;
+import org.apache.james.mime4j.decoder.QuotedPrintableInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Extracts the decoded content of the first body part whose content type matches a filter.
+ * <p>
+ * Unlike {@link MimeMessage#parse(InputStream)}, this does not build a tree of parts and does not
+ * decode non-matching parts to temp files. The decoded bytes of the matching part are copied
+ * straight to the sink, and the parse is stopped as soon as that part ends.
+ * <p>
+ * An extractor can be added to a {@link com.android.email.mail.FetchProfile} together with
+ * {@link com.android.email.mail.FetchProfile.Item#BODY}, in which case the store feeds the fetched
+ * body to {@link #extract(InputStream)} instead of parsing it into the message. All fetched
+ * messages share the same sink, so when fetching several messages the retrieval listener should
+ * drain the sink and {@link #reset()} the extractor after each message.
+ */
+public class MimePartExtractor implements Fetchable {
+    /**
+     * Decides which body part should be extracted.
+     */
+    public interface ContentTypeFilter {
+        /**
+         * Returns true if the part with the given lower-case mime type, e.g., "audio/amr", should
+         * be extracted.
+         */
+        public boolean accept(String mimeType);
+    }
+
+    /** A filter that accepts the first part of any audio/* type. */
+    public static final ContentTypeFilter AUDIO = new ContentTypeFilter() {
+        @Override
+        public boolean accept(String mimeType) {
+            return mimeType.startsWith("audio/");
+        }
+    };
+
+    private final ContentTypeFilter mFilter;
+    private final OutputStream mSink;
+    private String mMatchedMimeType;
+
+    /**
+     * @param filter selects the body part to extract
+     * @param sink receives the decoded content of the selected part; it is not closed
+     */
+    public MimePartExtractor(ContentTypeFilter filter, OutputStream sink) {
+        mFilter = filter;
+        mSink = sink;
+    }
+
+    /**
+     * Parses the given message stream until the first matching part has been copied to the sink.
+     *
+     * @return true if a matching part was found
+     */
+    public boolean extract(InputStream in) throws IOException {
+        MimeStreamParser parser = new MimeStreamParser();
+        parser.setContentHandler(new ExtractingHandler(parser));
+        parser.parse(new EOLConvertingInputStream(in));
+        return mMatchedMimeType != null;
+    }
+
+    /**
+     * Returns the mime type of the extracted part, or null if no part matched the filter.
+     * <p>
+     * It is already set when the first decoded bytes of the part are written to the sink.
+     */
+    public String getMatchedMimeType() {
+        return mMatchedMimeType;
+    }
+
+    /**
+     * Forgets the part matched by the previous extraction, so that the next message can be
+     * extracted. The sink is left as is.
+     */
+    public void reset() {
+        mMatchedMimeType = null;
+    }
+
+    private class ExtractingHandler extends AbstractContentHandler {
+        private final MimeStreamParser mParser;
+
+        public ExtractingHandler(MimeStreamParser parser) {
+            mParser = parser;
+        }
+
+        @Override
+        public void body(BodyDescriptor bd, InputStream in) throws IOException {
+            if (mMatchedMimeType != null || !mFilter.accept(bd.getMimeType())) {
+                return;
+            }
+            if (bd.isBase64Encoded()) {
+                in = new Base64InputStream(in);
+            } else if (bd.isQuotedPrintableEncoded()) {
+                in = new QuotedPrintableInputStream(in);
+            }
+            // Set before copying, so that the sink can tell what it is receiving.
+            mMatchedMimeType = bd.getMimeType();
+            IOUtils.copy(in, mSink);
+            // Nothing after this part is of interest, skip the rest of the message.
+            mParser.stop();
+        }
+    }
+}
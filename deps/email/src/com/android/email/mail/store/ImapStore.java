@@ -42,6 +42,7 @@ import com.android.email.mail.internet.MimeBodyPart;
 import com.android.email.mail.internet.MimeHeader;
 import com.android.email.mail.internet.MimeMessage;
 import com.android.email.mail.internet.MimeMultipart;
+import com.android.email.mail.internet.MimePartExtractor;
 import com.android.email.mail.internet.MimeUtility;
 import com.android.email.mail.store.imap.ImapConstants;
 import com.android.email.mail.store.imap.ImapElement;
@@ -67,10 +68,13 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
@@ -117,6 +121,17 @@ public class ImapStore extends Store {
     private static final Charset MODIFIED_UTF_7_CHARSET =
             new CharsetProvider().charsetForName("X-RFC-3501");
 
+    /** Maximum number of entries in each of the folder name caches. */
+    private static final int FOLDER_NAME_CACHE_SIZE = 32;
+
+    /**
+     * Caches of folder names that needed converting to and from UTF-7. Folder names are encoded
+     * for every SELECT, STATUS etc. and a new store is created for each operation, so the caches
+     * are shared by all stores.
+     */
+    private static final Map<String, String> sEncodedFolderNames = createFolderNameCache();
+    private static final Map<String, String> sDecodedFolderNames = createFolderNameCache();
+
     /**
      * Cache of ImapFolder objects. ImapFolders are attached to a given folder on the server
      * and as long as their associated connection remains open they are reusable between
@@ -466,20 +481,60 @@ public class ImapStore extends Store {
     }
 
     /* package */ static String encodeFolderName(String name) {
-        // TODO bypass the conversion if name doesn't have special char.
-        ByteBuffer bb = MODIFIED_UTF_7_CHARSET.encode(name);
-        byte[] b = new byte[bb.limit()];
-        bb.get(b);
-        return Utility.fromAscii(b);
+        if (isDirectlyEncoded(name)) {
+            // Printable ASCII other than '&' represents itself in modified UTF-7.
+            return name;
+        }
+        String encoded = sEncodedFolderNames.get(name);
+        if (encoded == null) {
+            ByteBuffer bb = MODIFIED_UTF_7_CHARSET.encode(name);
+            byte[] b = new byte[bb.limit()];
+            bb.get(b);
+            encoded = Utility.fromAscii(b);
+            sEncodedFolderNames.put(name, encoded);
+        }
+        return encoded;
     }
 
     /* package */ static String decodeFolderName(String name) {
-        // TODO bypass the conversion if name doesn't have special char.
-        /*
-         * Convert the encoded name to US-ASCII, then pass it through the modified UTF-7
-         * decoder and return the Unicode String.
-         */
-        return MODIFIED_UTF_7_CHARSET.decode(ByteBuffer.wrap(Utility.toAscii(name))).toString();
+        if (isDirectlyEncoded(name)) {
+            return name;
+        }
+        String decoded = sDecodedFolderNames.get(name);
+        if (decoded == null) {
+            /*
+             * Convert the encoded name to US-ASCII, then pass it through the modified UTF-7
+             * decoder and return the Unicode String.
+             */
+            decoded = MODIFIED_UTF_7_CHARSET.decode(
+                    ByteBuffer.wrap(Utility.toAscii(name))).toString();
+            sDecodedFolderNames.put(name, decoded);
+        }
+        return decoded;
+    }
+
+    /**
+     * Returns true if the name is the same in both its Unicode and modified UTF-7 forms, i.e., it
+     * only contains printable ASCII characters other than '&'.
+     */
+    private static boolean isDirectlyEncoded(String name) {
+        for (int i = 0, length = name.length(); i < length; i++) {
+            char c = name.charAt(i);
+            if (c < 0x20 || c > 0x7e || c == '&') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, String> createFolderNameCache() {
+        return Collections.synchronizedMap(
+                new LinkedHashMap<String, String>(FOLDER_NAME_CACHE_SIZE, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                        return size() > FOLDER_NAME_CACHE_SIZE;
+                    }
+                });
     }
 
     /**
@@ -618,6 +673,19 @@ public class ImapStore extends Store {
             }
         }
 
+        @Override
+        public void abort() {
+            ImapConnection connection;
+            synchronized (this) {
+                connection = mConnection;
+            }
+            if (connection != null) {
+                // The command in progress fails with an IOException, and ioExceptionHandler()
+                // then discards the connection rather than returning it to the pool.
+                connection.abort();
+            }
+        }
+
         @Override
         public String getName() {
             return mName;
@@ -893,6 +961,7 @@ public class ImapStore extends Store {
                 fetchFields.add(ImapConstants.FETCH_FIELD_BODY_PEEK);
             }
 
+            final MimePartExtractor partExtractor = fp.getFirstPartExtractor();
             final Part fetchPart = fp.getFirstPart();
             if (fetchPart != null) {
                 String[] partIds =
@@ -988,7 +1057,13 @@ public class ImapStore extends Store {
                             // content and not just headers.
                             ImapString body = fetchList.getKeyedStringOrEmpty("BODY[]", true);
                             InputStream bodyStream = body.getAsStream();
-                            message.parse(bodyStream);
+                            if (partExtractor != null) {
+                                // Only the selected part is wanted: decode it straight into the
+                                // extractor's sink and leave the message body unset.
+                                partExtractor.extract(bodyStream);
+                            } else {
+                                message.parse(bodyStream);
+                            }
                         }
                         if (fetchPart != null && fetchPart.getSize() > 0) {
                             InputStream bodyStream =
@@ -1524,6 +1599,17 @@ public class ImapStore extends Store {
             }
         }
 
+        /**
+         * Closes the socket of the connection from another thread than the one running its
+         * commands, which then fail with an IOException.
+         */
+        public void abort() {
+            Transport transport = mTransport;
+            if (transport != null) {
+                transport.close();
+            }
+        }
+
         /**
          * Create an {@link ImapResponseParser} from {@code mTransport.getInputStream()} and
          * set it to {@link #mParser}.
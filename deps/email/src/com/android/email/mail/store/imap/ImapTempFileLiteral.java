@@ -16,8 +16,10 @@
 
 package com.android.email.mail.store.imap;
 
+import com.android.email.ByteBufferInputStream;
 import com.android.email.Email;
 import com.android.email.FixedLengthInputStream;
+import com.android.email.TempFileManager;
 import com.android.email.Utility;
 
 import org.apache.commons.io.IOUtils;
@@ -26,46 +28,46 @@ import android.util.Log;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Subclass of {@link ImapString} used for literals backed by a temp file.
+ * <p>
+ * The temp file is read through a read-only memory mapping, so that reading the literal does not
+ * need a system call per read, nor a copy of the whole literal on the heap.
  */
 public class ImapTempFileLiteral extends ImapString {
     /* package for test */ final File mFile;
+    private final TempFileManager.TrackedFile mTrackedFile;
 
     /** Size is purely for toString() */
     private final int mSize;
 
+    /** The read-only mapping of the temp file, created on first access. */
+    private ByteBuffer mMappedBuffer;
+
     /* package */  ImapTempFileLiteral(FixedLengthInputStream stream) throws IOException {
         mSize = stream.getLength();
-        mFile = File.createTempFile("imap", ".tmp", Email.getTempDirectory());
-
-        // Unfortunately, we can't really use deleteOnExit(), because temp filenames are random
-        // so it'd simply cause a memory leak.
-        // deleteOnExit() simply adds filenames to a static list and the list will never shrink.
-        // mFile.deleteOnExit();
+        // We should always be calling {@link ImapResponse#destroy()}, but as a last resort the
+        // temp file manager deletes the file once this literal has been garbage collected.
+        mTrackedFile = Email.getTempFileManager().createTempFile(
+                TempFileManager.LITERAL_PREFIX, this, mSize);
+        mFile = mTrackedFile.getFile();
         OutputStream out = new FileOutputStream(mFile);
-        IOUtils.copy(stream, out);
-        out.close();
-    }
-
-    /**
-     * Make sure we delete the temp file.
-     *
-     * We should always be calling {@link ImapResponse#destroy()}, but it's here as a last resort.
-     */
-    @Override
-    protected void finalize() throws Throwable {
         try {
-            destroy();
+            IOUtils.copy(stream, out);
+        } catch (IOException e) {
+            mTrackedFile.delete();
+            throw e;
         } finally {
-            super.finalize();
+            out.close();
         }
     }
 
@@ -73,13 +75,16 @@ public class ImapTempFileLiteral extends ImapString {
     public InputStream getAsStream() {
         checkNotDestroyed();
         try {
-            return new FileInputStream(mFile);
+            return new ByteBufferInputStream(getMappedBuffer());
         } catch (FileNotFoundException e) {
             // It's probably possible if we're low on storage and the system clears the cache dir.
             Log.w(Email.LOG_TAG, "ImapTempFileLiteral: Temp file not found");
 
             // Return 0 byte stream as a dummy...
             return new ByteArrayInputStream(new byte[0]);
+        } catch (IOException e) {
+            Log.w(Email.LOG_TAG, "ImapTempFileLiteral: Error while mapping temp file");
+            return new ByteArrayInputStream(new byte[0]);
         }
     }
 
@@ -87,7 +92,8 @@ public class ImapTempFileLiteral extends ImapString {
     public String getString() {
         checkNotDestroyed();
         try {
-            return Utility.fromAscii(IOUtils.toByteArray(getAsStream()));
+            // Decode straight from the mapping, without reading it into a byte[] first.
+            return Utility.ASCII.decode(getMappedBuffer()).toString();
         } catch (IOException e) {
             Log.w(Email.LOG_TAG, "ImapTempFileLiteral: Error while reading temp file");
             return "";
@@ -97,16 +103,36 @@ public class ImapTempFileLiteral extends ImapString {
     @Override
     public void destroy() {
         try {
-            if (!isDestroyed() && mFile.exists()) {
-                mFile.delete();
+            if (!isDestroyed()) {
+                mTrackedFile.delete();
             }
         } catch (RuntimeException re) {
             // Just log and ignore.
             Log.w(Email.LOG_TAG, "Failed to remove temp file: " + re.getMessage());
         }
+        mMappedBuffer = null;
         super.destroy();
     }
 
+    /**
+     * Returns a new read-only view of the whole literal, positioned at its start.
+     * <p>
+     * The file is mapped on first access; the mapping stays valid after the file is deleted and is
+     * released when the buffer is garbage collected.
+     */
+    private ByteBuffer getMappedBuffer() throws IOException {
+        if (mMappedBuffer == null) {
+            RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                mMappedBuffer = file.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, 0, file.length());
+            } finally {
+                file.close();
+            }
+        }
+        return mMappedBuffer.duplicate();
+    }
+
     @Override
     public String toString() {
         return String.format("{%d byte literal(file)}", mSize);
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.voicemail.common.core;
+
+import com.example.android.voicemail.common.logging.Logger;
+import com.example.android.voicemail.common.utils.CloseUtils;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.provider.VoicemailContract.Voicemails;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the content of a voicemail progressively, so that it can be played before it has been
+ * written in full.
+ * <p>
+ * Every write goes straight to the content file of the voicemail, without buffering, so the bytes
+ * written so far, the readable prefix, can be read at any time. The length of the readable prefix
+ * is published to the {@link Listener} after every write, and observers of the voicemail Uri are
+ * notified each time it has grown by {@link #NOTIFY_INTERVAL_BYTES}.
+ * <p>
+ * The voicemail is marked as having no content when opened, and only marked as having content
+ * again by {@link #close()}, once the whole content has been written. Other apps, which only see
+ * the content flag, thus never play a truncated file, and a voicemail whose download was cut
+ * short, e.g., by the death of the process, is fetched again. Only the {@link Listener} learns of
+ * the readable prefix before then. Call {@link #abort()} if the content could not be written in
+ * full.
+ * <p>
+ * Instances are created by {@link VoicemailProviderHelper#openVoicemailContent}. They may be
+ * aborted from another thread, which makes the writes that follow fail.
+ */
+public final class VoicemailContentOutputStream extends OutputStream {
+    private static final Logger logger = Logger.getLogger(VoicemailContentOutputStream.class);
+
+    /** How much the readable prefix has to grow by before observers of the Uri are notified. */
+    public static final long NOTIFY_INTERVAL_BYTES = 32 * 1024;
+
+    /** Receives the progress of the content of a voicemail. */
+    public interface Listener {
+        /** Called each time the readable prefix of the content of the voicemail has grown. */
+        public void onReadablePrefixChanged(Uri voicemailUri, long length);
+
+        /**
+         * Called once the content has been written, in full if complete is true, or else given up.
+         */
+        public void onContentFinished(Uri voicemailUri, boolean complete);
+    }
+
+    private final ContentResolver mContentResolver;
+    private final Uri mVoicemailUri;
+    private final String mMimeType;
+    private final Listener mListener;
+    private final OutputStream mOutputStream;
+    // Guarded by this, so that a write and an abort do not interleave.
+    private long mLength;
+    private long mNotifiedLength;
+    private boolean mClosed;
+
+    /*package*/ VoicemailContentOutputStream(ContentResolver contentResolver, Uri voicemailUri,
+            String mimeType, Listener listener) throws IOException {
+        mContentResolver = contentResolver;
+        mVoicemailUri = voicemailUri;
+        mMimeType = mimeType;
+        mListener = listener;
+        // Any previous content is about to be truncated.
+        updateContentFlag(false);
+        mOutputStream = contentResolver.openOutputStream(voicemailUri);
+        if (mOutputStream == null) {
+            throw new IOException("Cannot open content of " + voicemailUri);
+        }
+    }
+
+    /** Returns the number of bytes of content that can be read so far. */
+    public synchronized long getReadablePrefixLength() {
+        return mLength;
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        write(new byte[] {(byte) oneByte}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int offset, int count) throws IOException {
+        if (mClosed) {
+            throw new IOException("Content of " + mVoicemailUri + " already closed");
+        }
+        if (count == 0) {
+            return;
+        }
+        mOutputStream.write(buffer, offset, count);
+        mOutputStream.flush();
+        mLength += count;
+        mListener.onReadablePrefixChanged(mVoicemailUri, mLength);
+        if (mLength - mNotifiedLength >= NOTIFY_INTERVAL_BYTES) {
+            mNotifiedLength = mLength;
+            mContentResolver.notifyChange(mVoicemailUri, null);
+        }
+    }
+
+    /**
+     * Closes the content once it has been written in full.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mOutputStream.close();
+        updateContentFlag(true);
+        mContentResolver.notifyChange(mVoicemailUri, null);
+        mListener.onContentFinished(mVoicemailUri, true);
+    }
+
+    /**
+     * Closes the content without having written it in full. The voicemail is left without content,
+     * so that it is fetched again.
+     */
+    public synchronized void abort() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        CloseUtils.closeQuietly(mOutputStream);
+        logger.d("Aborted content of " + mVoicemailUri + " after " + mLength + " bytes");
+        mListener.onContentFinished(mVoicemailUri, false);
+    }
+
+    private void updateContentFlag(boolean hasContent) throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(Voicemails.MIME_TYPE, mMimeType);
+        values.put(Voicemails.HAS_CONTENT, hasContent);
+        int updatedCount = mContentResolver.update(mVoicemailUri, values, null, null);
+        if (updatedCount != 1) {
+            throw new IOException("Updating voicemail should have updated 1 row, was: "
+                    + updatedCount);
+        }
+    }
+}
@@ -16,10 +16,15 @@
 
 package com.example.android.voicemail.common.core;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.OperationApplicationException;
 import android.net.Uri;
+import android.os.RemoteException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -117,6 +122,20 @@ public interface VoicemailProviderHelper {
     public void setVoicemailContent(Uri voicemailUri, byte[] inputBytes, String mimeType)
             throws IOException;
 
+    /**
+     * Opens the content of the voicemail for progressive writing, replacing any previous content.
+     * <p>
+     * Like the setVoicemailContent() methods, the voicemail is only marked as having content once
+     * it has been written in full, but the length written so far is reported to the listener, so
+     * that it can be played while the rest is being written.
+     *
+     * @param listener notified of the length of the content that can be read so far
+     * @throws IOException if there is a problem opening the file
+     * @see VoicemailContentOutputStream
+     */
+    public VoicemailContentOutputStream openVoicemailContent(Uri voicemailUri, String mimeType,
+            VoicemailContentOutputStream.Listener listener) throws IOException;
+
     /**
      * Fetch all the voicemails accessible to this voicemail content provider.
      *
@@ -124,6 +143,12 @@ public interface VoicemailProviderHelper {
      */
     public List<Voicemail> getAllVoicemails();
 
+    /**
+     * Same as {@link #getAllVoicemails()} but hands each voicemail to the sink as it is read from
+     * the cursor, rather than collecting them into a list.
+     */
+    public void getAllVoicemails(VoicemailSink sink);
+
     /**
      * Same as {@link #getAllVoicemails()} but also sorts them by the requested column and allows to
      * set a filter.
@@ -137,8 +162,56 @@ public interface VoicemailProviderHelper {
     public List<Voicemail> getAllVoicemails(VoicemailFilter filter,
             String sortColumn, SortOrder sortOrder);
 
+    /**
+     * Fetches the voicemails whose source data is one of the given values.
+     * <p>
+     * The values are matched in chunks, using bound arguments, so any number of them can be given.
+     *
+     * @return the matching voicemails, no guarantee is made about the ordering
+     */
+    public List<Voicemail> findVoicemailsBySourceData(List<String> sourceData);
+
+    /**
+     * Same as {@link #findVoicemailsBySourceData(List)} but hands each voicemail to the sink as it
+     * is read from the cursor, rather than collecting them into a list.
+     */
+    public void findVoicemailsBySourceData(List<String> sourceData, VoicemailSink sink);
+
     /**
      * Returns the Uri for the voicemail with the specified message Id.
      */
     public Uri getUriForVoicemailWithId(long id);
+
+    /**
+     * Builds an operation that inserts a new voicemail, to be applied with
+     * {@link #applyBatch(ArrayList)}.
+     *
+     * @throws IllegalArgumentException under the same conditions as {@link #insert(Voicemail)}
+     */
+    public ContentProviderOperation newInsertOperation(Voicemail voicemail);
+
+    /**
+     * Builds an operation that updates an existing voicemail, to be applied with
+     * {@link #applyBatch(ArrayList)}.
+     *
+     * @throws IllegalArgumentException under the same conditions as
+     *             {@link #update(Uri, Voicemail)}
+     */
+    public ContentProviderOperation newUpdateOperation(Uri uri, Voicemail voicemail);
+
+    /**
+     * Builds an operation that deletes the voicemails matching the given Uri, to be applied with
+     * {@link #applyBatch(ArrayList)}.
+     */
+    public ContentProviderOperation newDeleteOperation(Uri uri);
+
+    /**
+     * Applies the given operations in a single call to the voicemail content provider.
+     *
+     * @return the results of the operations, in the same order as the operations
+     * @throws OperationApplicationException if any of the operations fails, in which case none of
+     *             the following operations are applied
+     */
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws RemoteException, OperationApplicationException;
 }
@@ -20,12 +20,16 @@ import com.example.android.voicemail.common.logging.Logger;
 import com.example.android.voicemail.common.utils.CloseUtils;
 import com.example.android.voicemail.common.utils.DbQueryUtils;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.provider.VoicemailContract;
 import android.provider.VoicemailContract.Voicemails;
 
@@ -41,6 +45,9 @@ import java.util.List;
 public final class VoicemailProviderHelpers implements VoicemailProviderHelper {
     private static final Logger logger = Logger.getLogger(VoicemailProviderHelpers.class);
 
+    /** SQLite's default limit on the number of arguments bound to a single query. */
+    private static final int MAX_SELECTION_ARGS = 999;
+
     /** Full projection on the voicemail table, giving us all the columns. */
     private static final String[] FULL_PROJECTION = new String[] {
             Voicemails._ID,
@@ -93,25 +100,68 @@ public final class VoicemailProviderHelpers implements VoicemailProviderHelper {
 
     @Override
     public Uri insert(Voicemail voicemail) {
+        logger.d(String.format("Inserting new voicemail: %s", voicemail));
+        return mContentResolver.insert(mBaseUri, getContentValuesForInsert(voicemail));
+    }
+
+    @Override
+    public int update(Uri uri, Voicemail voicemail) {
+        logger.d("Updating voicemail: " + voicemail + " for uri: " + uri);
+        return mContentResolver.update(uri, getContentValuesForUpdate(voicemail), null, null);
+    }
+
+    @Override
+    public ContentProviderOperation newInsertOperation(Voicemail voicemail) {
+        return ContentProviderOperation.newInsert(mBaseUri)
+                .withValues(getContentValuesForInsert(voicemail))
+                .build();
+    }
+
+    @Override
+    public ContentProviderOperation newUpdateOperation(Uri uri, Voicemail voicemail) {
+        return ContentProviderOperation.newUpdate(uri)
+                .withValues(getContentValuesForUpdate(voicemail))
+                .build();
+    }
+
+    @Override
+    public ContentProviderOperation newDeleteOperation(Uri uri) {
+        return ContentProviderOperation.newDelete(uri).build();
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws RemoteException, OperationApplicationException {
+        logger.d(String.format("Applying batch of %d operations", operations.size()));
+        return mContentResolver.applyBatch(mBaseUri.getAuthority(), operations);
+    }
+
+    /**
+     * Checks that a voicemail can be inserted and returns the values to insert for it.
+     *
+     * @throws IllegalArgumentException if the voicemail cannot be inserted
+     */
+    private ContentValues getContentValuesForInsert(Voicemail voicemail) {
         check(!voicemail.hasId(), "Inserted voicemails must not have an id", voicemail);
         check(voicemail.hasTimestampMillis(), "Inserted voicemails must have a timestamp",
                 voicemail);
         check(voicemail.hasNumber(), "Inserted voicemails must have a number", voicemail);
-        logger.d(String.format("Inserting new voicemail: %s", voicemail));
         ContentValues contentValues = getContentValues(voicemail);
         if (!voicemail.hasRead()) {
             // If is_read is not set then set it to false as default value.
             contentValues.put(Voicemails.IS_READ, 0);
         }
-        return mContentResolver.insert(mBaseUri, contentValues);
+        return contentValues;
     }
 
-    @Override
-    public int update(Uri uri, Voicemail voicemail) {
+    /**
+     * Checks that a voicemail can be used for an update and returns the values to update.
+     *
+     * @throws IllegalArgumentException if the voicemail has a Uri
+     */
+    private ContentValues getContentValuesForUpdate(Voicemail voicemail) {
         check(!voicemail.hasUri(), "Can't update the Uri of a voicemail", voicemail);
-        logger.d("Updating voicemail: " + voicemail + " for uri: " + uri);
-        ContentValues values = getContentValues(voicemail);
-        return mContentResolver.update(uri, values, null, null);
+        return getContentValues(voicemail);
     }
 
     @Override
@@ -126,6 +176,13 @@ public final class VoicemailProviderHelpers implements VoicemailProviderHelper {
         setVoicemailContent(voicemailUri, inputBytes, null, mimeType);
     }
 
+    @Override
+    public VoicemailContentOutputStream openVoicemailContent(Uri voicemailUri, String mimeType,
+            VoicemailContentOutputStream.Listener listener) throws IOException {
+        logger.d(String.format("Writing new voicemail content progressively: %s", voicemailUri));
+        return new VoicemailContentOutputStream(mContentResolver, voicemailUri, mimeType, listener);
+    }
+
     private void setVoicemailContent(Uri voicemailUri, byte[] inputBytes, InputStream inputStream,
             String mimeType) throws IOException {
         if (inputBytes != null && inputStream != null) {
@@ -175,6 +232,46 @@ public final class VoicemailProviderHelpers implements VoicemailProviderHelper {
         }
     }
 
+    @Override
+    public List<Voicemail> findVoicemailsBySourceData(List<String> sourceData) {
+        List<Voicemail> results = new ArrayList<Voicemail>(sourceData.size());
+        findVoicemailsBySourceData(sourceData, addingTo(results));
+        return results;
+    }
+
+    @Override
+    public void findVoicemailsBySourceData(List<String> sourceData, VoicemailSink sink) {
+        for (int start = 0; start < sourceData.size(); start += MAX_SELECTION_ARGS) {
+            List<String> chunk = sourceData.subList(start,
+                    Math.min(start + MAX_SELECTION_ARGS, sourceData.size()));
+            StringBuilder selection = new StringBuilder(Voicemails.SOURCE_DATA).append(" IN (");
+            for (int i = 0; i < chunk.size(); ++i) {
+                selection.append(i == 0 ? "?" : ",?");
+            }
+            selection.append(")");
+            Cursor cursor = null;
+            try {
+                cursor = mContentResolver.query(mBaseUri, FULL_PROJECTION, selection.toString(),
+                        chunk.toArray(new String[chunk.size()]), null);
+                while (cursor.moveToNext()) {
+                    sink.accept(getVoicemailFromCursor(cursor));
+                }
+            } finally {
+                CloseUtils.closeQuietly(cursor);
+            }
+        }
+    }
+
+    /** Returns a sink that adds the voicemails to the given list. */
+    private static VoicemailSink addingTo(final List<Voicemail> results) {
+        return new VoicemailSink() {
+            @Override
+            public void accept(Voicemail voicemail) {
+                results.add(voicemail);
+            }
+        };
+    }
+
     @Override
     public Voicemail findVoicemailByUri(Uri uri) {
         Cursor cursor = null;
@@ -226,6 +323,20 @@ public final class VoicemailProviderHelpers implements VoicemailProviderHelper {
         return getAllVoicemails(null, null, SortOrder.DEFAULT);
     }
 
+    @Override
+    public void getAllVoicemails(VoicemailSink sink) {
+        logger.i(String.format("Reading all voicemails"));
+        Cursor cursor = null;
+        try {
+            cursor = mContentResolver.query(mBaseUri, FULL_PROJECTION, null, null, null);
+            while (cursor.moveToNext()) {
+                sink.accept(getVoicemailFromCursor(cursor));
+            }
+        } finally {
+            CloseUtils.closeQuietly(cursor);
+        }
+    }
+
     @Override
     public List<Voicemail> getAllVoicemails(VoicemailFilter filter,
             String sortColumn, SortOrder sortOrder) {
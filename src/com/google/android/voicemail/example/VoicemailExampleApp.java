@@ -19,6 +19,8 @@ import com.google.android.voicemail.example.dependency.DependencyResolverImpl;
 
 import android.app.Application;
 
+import com.android.email.Email;
+
 /**
  * Voicemail example application.
  */
@@ -27,5 +29,8 @@ public class VoicemailExampleApp extends Application {
     public void onCreate() {
         super.onCreate();
         DependencyResolverImpl.initialize(this);
+        // Done once per process, so that temp files left behind by a previous process are removed
+        // before any IMAP operation creates new ones.
+        Email.setTempDirectory(this);
     }
 }
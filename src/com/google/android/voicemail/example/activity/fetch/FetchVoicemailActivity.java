@@ -80,7 +80,7 @@ public class FetchVoicemailActivity extends Activity
         AccountStoreWrapper accountStore = dependencyResolver.getAccountsStore();
         OmtpMessageSender messageSender = dependencyResolver.createOmtpMessageSender();
         mPresenter = new FetchVoicemailPresenter(this, this, mDialogHelper, mVoicemailProvider,
-                dependencyResolver.createSyncResolver(), accountStore, messageSender);
+                dependencyResolver.getSyncResolver(), accountStore, messageSender);
         mPresenter.onCreate(savedInstanceState);
     }
 
@@ -31,7 +31,6 @@ import android.os.Bundle;
 import android.util.Base64;
 import android.view.View;
 
-import com.android.email.Email;
 import com.android.email.mail.Address;
 import com.android.email.mail.Body;
 import com.android.email.mail.Folder;
@@ -108,7 +107,6 @@ import javax.annotation.concurrent.NotThreadSafe;
     // TODO: 2. This method should not be public, and should not be on this class.
     // TODO: 3. Revisit the mime type as well, audio/mpeg I think.
     public void put(Context context, AccountDetails accountDetails) {
-        Email.setTempDirectory(context);
         try {
             Store store = ImapStore.newInstance(accountDetails.getUriString(), context, null);
             String folderName = "Greeting";
@@ -22,6 +22,10 @@ import android.os.Bundle;
 import com.example.android.voicemail.common.core.Voicemail;
 import com.example.android.voicemail.common.core.VoicemailImpl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import javax.annotation.Nullable;
 
 /**
@@ -30,6 +34,14 @@ import javax.annotation.Nullable;
 public class VoicemailIntentUtils {
     /** The String used when storing provider data in intents. */
     public static final String PROVIDER_DATA_KEY = VoicemailImpl.class.getName() + ".PROVIDER_DATA";
+    /** The String used when storing the provider data of several voicemails in intents. */
+    public static final String PROVIDER_DATA_LIST_KEY =
+            VoicemailImpl.class.getName() + ".PROVIDER_DATA_LIST";
+    /** The String used when storing the time a fetch was requested in intents. */
+    public static final String REQUEST_TIME_KEY = VoicemailImpl.class.getName() + ".REQUEST_TIME";
+    /** The String used when storing the lengths given by new message notifications in intents. */
+    public static final String NOTIFIED_LENGTHS_KEY =
+            VoicemailImpl.class.getName() + ".NOTIFIED_LENGTHS";
 
     // Private constructor, utility class.
     private VoicemailIntentUtils() {
@@ -58,13 +70,112 @@ public class VoicemailIntentUtils {
     }
 
     /**
-     * Copies the extras stored by {@link #storeIdentifierInIntent(Intent, Voicemail)} between two
-     * intents.
+     * Stores the {@link Voicemail#getSourceData()} values of several voicemails into an intent.
+     *
+     * @see #extractIdentifiersFromIntent(Intent)
+     */
+    public static void storeIdentifiersInIntent(Intent intent, Collection<Voicemail> messages) {
+        ArrayList<String> identifiers = new ArrayList<String>(messages.size());
+        for (Voicemail message : messages) {
+            identifiers.add(message.getSourceData());
+        }
+        intent.putStringArrayListExtra(PROVIDER_DATA_LIST_KEY, identifiers);
+    }
+
+    /**
+     * Retrieves all the {@link Voicemail#getSourceData()} values from an intent, whether they were
+     * stored by {@link #storeIdentifierInIntent(Intent, Voicemail)} or by
+     * {@link #storeIdentifiersInIntent(Intent, Collection)}.
+     * <p>
+     * Returns an empty list if the Intent contains no identifier, or has no extras.
+     */
+    public static List<String> extractIdentifiersFromIntent(Intent intent) {
+        List<String> identifiers = new ArrayList<String>();
+        Bundle extras = intent.getExtras();
+        if (extras != null) {
+            if (extras.containsKey(PROVIDER_DATA_KEY)) {
+                identifiers.add(extras.getString(PROVIDER_DATA_KEY));
+            }
+            if (extras.containsKey(PROVIDER_DATA_LIST_KEY)) {
+                identifiers.addAll(extras.getStringArrayList(PROVIDER_DATA_LIST_KEY));
+            }
+        }
+        return identifiers;
+    }
+
+    /**
+     * Stores the time at which a fetch was requested into an intent, as given by
+     * {@link android.os.SystemClock#elapsedRealtime()}.
+     *
+     * @see #extractRequestTimeFromIntent(Intent)
+     */
+    public static void storeRequestTimeInIntent(Intent intent, long elapsedRealtimeMillis) {
+        intent.putExtra(REQUEST_TIME_KEY, elapsedRealtimeMillis);
+    }
+
+    /**
+     * Retrieves the time at which a fetch was requested from an intent.
+     * <p>
+     * Returns -1 if the Intent contains no such time, or has no extras.
+     *
+     * @see #storeRequestTimeInIntent(Intent, long)
+     */
+    public static long extractRequestTimeFromIntent(Intent intent) {
+        Bundle extras = intent.getExtras();
+        return (extras == null ? -1 : extras.getLong(REQUEST_TIME_KEY, -1));
+    }
+
+    /**
+     * Stores the lengths in seconds of several voicemails, as given by the new message
+     * notifications that announced them, into an intent, in the same order as
+     * {@link #storeIdentifiersInIntent(Intent, Collection)}. This marks the fetch as a prefetch of
+     * voicemails that are known to exist on the server.
+     *
+     * @see #extractNotifiedLengthsFromIntent(Intent)
+     */
+    public static void storeNotifiedLengthsInIntent(Intent intent, Collection<Voicemail> messages) {
+        long[] lengths = new long[messages.size()];
+        int i = 0;
+        for (Voicemail message : messages) {
+            lengths[i++] = message.hasDuration() ? message.getDuration() : 0;
+        }
+        intent.putExtra(NOTIFIED_LENGTHS_KEY, lengths);
+    }
+
+    /**
+     * Retrieves the lengths of voicemails given by new message notifications from an intent, 0
+     * standing for an unknown length.
+     * <p>
+     * Returns null if the Intent contains no such lengths, or has no extras.
+     *
+     * @see #storeNotifiedLengthsInIntent(Intent, Collection)
+     */
+    @Nullable
+    public static long[] extractNotifiedLengthsFromIntent(Intent intent) {
+        Bundle extras = intent.getExtras();
+        return (extras == null ? null : extras.getLongArray(NOTIFIED_LENGTHS_KEY));
+    }
+
+    /**
+     * Copies the extras stored by {@link #storeIdentifierInIntent(Intent, Voicemail)},
+     * {@link #storeIdentifiersInIntent(Intent, Collection)},
+     * {@link #storeRequestTimeInIntent(Intent, long)} and
+     * {@link #storeNotifiedLengthsInIntent(Intent, Collection)} between two intents.
      */
     public static void copyExtrasBetween(Intent from, Intent to) {
         Bundle extras = from.getExtras();
         if (extras.containsKey(PROVIDER_DATA_KEY)) {
             to.putExtra(PROVIDER_DATA_KEY, extras.getString(PROVIDER_DATA_KEY));
         }
+        if (extras.containsKey(PROVIDER_DATA_LIST_KEY)) {
+            to.putStringArrayListExtra(PROVIDER_DATA_LIST_KEY,
+                    extras.getStringArrayList(PROVIDER_DATA_LIST_KEY));
+        }
+        if (extras.containsKey(REQUEST_TIME_KEY)) {
+            to.putExtra(REQUEST_TIME_KEY, extras.getLong(REQUEST_TIME_KEY));
+        }
+        if (extras.containsKey(NOTIFIED_LENGTHS_KEY)) {
+            to.putExtra(NOTIFIED_LENGTHS_KEY, extras.getLongArray(NOTIFIED_LENGTHS_KEY));
+        }
     }
 }
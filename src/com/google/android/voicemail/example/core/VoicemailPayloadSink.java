@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.voicemail.example.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Receives the payload of a voicemail as it is downloaded, rather than once it is complete.
+ */
+public interface VoicemailPayloadSink {
+    /**
+     * Called with the mime type of the payload before its first bytes are written. Returns the
+     * stream the payload is written to, which is owned by the sink and is not closed by the caller.
+     */
+    public OutputStream open(String mimeType) throws IOException;
+}
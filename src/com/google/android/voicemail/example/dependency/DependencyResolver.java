@@ -15,9 +15,14 @@
  */
 package com.google.android.voicemail.example.dependency;
 
+import com.google.android.voicemail.example.service.fetch.ContentProgressTracker;
+import com.google.android.voicemail.example.service.fetch.FetchThroughputEstimator;
+import com.google.android.voicemail.example.sms.NewMessageCoalescer;
 import com.google.android.voicemail.example.sms.OmtpMessageHandler;
 import com.google.android.voicemail.example.sms.OmtpMessageSender;
 import com.google.android.voicemail.example.sms.SmsParser;
+import com.google.android.voicemail.example.sms.SmsReassemblyBuffer;
+import com.google.android.voicemail.example.sync.RemoteOperationQueue;
 import com.google.android.voicemail.example.sync.SyncResolver;
 import com.google.android.voicemail.example.sync.VoicemailFetcherFactory;
 import com.google.android.voicemail.example.sync.VvmStore;
@@ -41,6 +46,8 @@ import java.util.concurrent.Executors;
  * members created here will be singletons, no methods are provided for deleting the object and
  * consequently they will all persist for the lifetime of the app, they should only be added for
  * objects that need to be shared as a single instance across multiple activities or services.
+ * The only exception are the members built from the provider config, which are dropped by
+ * {@link #invalidateProviderConfig()} and rebuilt on their next request.
  * <p>
  * Methods starting with the prefix "create" will always return a brand-new instance. The "create"
  * methods may have arguments.
@@ -77,9 +84,56 @@ public interface DependencyResolver {
     /** Returns the singleton instance of remote {@link VvmStore} held by dependency resolver. */
     public VvmStore getRemoteStore();
 
+    /**
+     * Returns the singleton {@link RemoteOperationQueue} holding the operations of the remote
+     * store that have not reached the server yet.
+     */
+    public RemoteOperationQueue getRemoteOperationQueue();
+
+    /**
+     * Returns the singleton {@link FetchThroughputEstimator}, which keeps the throughput measured
+     * on voicemail downloads across the runs of the fetch service.
+     */
+    public FetchThroughputEstimator getFetchThroughputEstimator();
+
+    /**
+     * Returns the singleton {@link ContentProgressTracker}, which tells, and broadcasts, how much
+     * of the voicemails being downloaded can already be played.
+     */
+    public ContentProgressTracker getContentProgressTracker();
+
+    /**
+     * Returns the singleton {@link NewMessageCoalescer}, which inserts the new voicemails announced
+     * close together as a batch.
+     */
+    public NewMessageCoalescer getNewMessageCoalescer();
+
+    /**
+     * Returns the singleton {@link SmsReassemblyBuffer}, which holds the segments of concatenated
+     * OMTP SMS until their message is complete.
+     */
+    public SmsReassemblyBuffer getSmsReassemblyBuffer();
+
+    /**
+     * Returns the singleton {@link SyncResolver} through which all syncs should be requested.
+     * <p>
+     * It makes sure that only one sync is in flight at a time, merging the requests made in the
+     * meantime.
+     */
+    public SyncResolver getSyncResolver();
+
+    /**
+     * Returns the singleton instance of provider specific {@link SmsParser}, until the provider
+     * config is invalidated.
+     */
+    public SmsParser getSmsParser();
+
     /**
      * Creates an instance of provider specific {@SmsParser}. The provider config to be
      * used is internally determined by the dependency resolver.
+     * <p>
+     * Parsers are immutable and thread safe, you should normally use {@link #getSmsParser()}
+     * instead.
      */
     public SmsParser createSmsParser();
 
@@ -90,13 +144,28 @@ public interface DependencyResolver {
     public OmtpMessageSender createOmtpMessageSender();
 
     /**
-     * Creates an instance of provider specific {@OmtpMessageHandler}.
+     * Returns the singleton instance of provider specific {@link OmtpMessageHandler}, until the
+     * provider config is invalidated. The handler is stateless, so the same instance handles all
+     * the incoming SMS.
      */
-    public OmtpMessageHandler createOmtpMessageHandler();
+    public OmtpMessageHandler getOmtpMessageHandler();
+
+    /**
+     * Drops the members built from the provider config, namely the {@link SmsParser} and the
+     * {@link OmtpMessageHandler}, so that they are rebuilt from the current config on their next
+     * request. To be called whenever the provider config may have changed, e.g., when the SIM has
+     * changed.
+     * <p>
+     * The members already handed out are not affected.
+     */
+    public void invalidateProviderConfig();
 
     /**
      * Creates an instance of provider specific sync resolver that knows which local and remote
      * store needs to be synced.
+     * <p>
+     * Syncs requested through this instance are not coordinated with any other syncs, you should
+     * normally use {@link #getSyncResolver()} instead.
      */
     public SyncResolver createSyncResolver();
 }
@@ -20,17 +20,28 @@ import com.google.android.voicemail.example.imap.AsyncImapVoicemailFetcher;
 import com.google.android.voicemail.example.proxy.SmsManagerProxyImpl;
 import com.google.android.voicemail.example.proxy.TelephonyManagerProxy;
 import com.google.android.voicemail.example.proxy.TelephonyManagerProxyImpl;
+import com.google.android.voicemail.example.service.fetch.ContentProgressTracker;
+import com.google.android.voicemail.example.service.fetch.FetchThroughputEstimator;
+import com.google.android.voicemail.example.sms.NewMessageCoalescer;
 import com.google.android.voicemail.example.sms.OmtpMessageHandler;
 import com.google.android.voicemail.example.sms.OmtpMessageHandlerImpl;
 import com.google.android.voicemail.example.sms.OmtpMessageSender;
 import com.google.android.voicemail.example.sms.OmtpMessageSenderImpl;
 import com.google.android.voicemail.example.sms.SmsParser;
 import com.google.android.voicemail.example.sms.SmsParserImpl;
+import com.google.android.voicemail.example.sms.SmsReassemblyBuffer;
+import com.google.android.voicemail.example.sms.TimestampParser;
 import com.google.android.voicemail.example.spec.ProviderConfig;
 import com.google.android.voicemail.example.spec.ProviderConfigs;
 import com.google.android.voicemail.example.storage.AccountsDatabase;
+import com.google.android.voicemail.example.storage.RemoteOutboxDatabase;
+import com.google.android.voicemail.example.storage.RemoteStateDatabase;
+import com.google.android.voicemail.example.storage.RemoteStateJournal;
+import com.google.android.voicemail.example.sync.CoalescingSyncResolver;
+import com.google.android.voicemail.example.sync.DownloadPolicies;
 import com.google.android.voicemail.example.sync.LocalVvmStore;
 import com.google.android.voicemail.example.sync.OmtpVvmStore;
+import com.google.android.voicemail.example.sync.RemoteOperationQueue;
 import com.google.android.voicemail.example.sync.SyncResolver;
 import com.google.android.voicemail.example.sync.SyncResolverImpl;
 import com.google.android.voicemail.example.sync.VoicemailFetcherFactory;
@@ -50,7 +61,6 @@ import com.example.android.voicemail.common.core.VoicemailProviderHelper;
 import com.example.android.voicemail.common.core.VoicemailProviderHelpers;
 import com.example.android.voicemail.common.logging.Logger;
 
-import java.text.SimpleDateFormat;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -65,6 +75,21 @@ import javax.annotation.concurrent.ThreadSafe;
 public final class DependencyResolverImpl implements DependencyResolver {
     private static final Logger logger = Logger.getLogger(DependencyResolver.class);
 
+    /** How long to wait for more sync requests to merge before starting a sync. */
+    private static final long SYNC_DEBOUNCE_MILLIS = 1000;
+    /** How many of the newest voicemails have their content downloaded by a sync. */
+    private static final int SYNC_DOWNLOAD_NEWEST_COUNT = 10;
+    /** The maximum estimated number of content bytes downloaded by a single sync. */
+    private static final long SYNC_DOWNLOAD_MAX_BYTES = 1024 * 1024;
+    /** How long a sync can run before it is failed, letting the next one start. */
+    private static final long SYNC_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    /** How long to wait for more new message notifications to insert together. */
+    private static final long NEW_MESSAGE_WINDOW_MILLIS = 200;
+    /** How many concatenated SMS can be waiting for their missing segments at the same time. */
+    private static final int SMS_REASSEMBLY_MAX_PARTIAL_MESSAGES = 8;
+    /** How long to wait for the missing segments of a concatenated SMS. */
+    private static final long SMS_REASSEMBLY_EXPIRY_MILLIS = 5 * 60 * 1000;
+
     private static DependencyResolverImpl sSingletonInstance;
 
     /**
@@ -108,6 +133,17 @@ public final class DependencyResolverImpl implements DependencyResolver {
     private UserSettings mUserSettings;
     private VvmStore mLocalStore;
     private VvmStore mRemoteStore;
+    private RemoteOperationQueue mRemoteOperationQueue;
+    private FetchThroughputEstimator mFetchThroughputEstimator;
+    private ContentProgressTracker mContentProgressTracker;
+    private SmsReassemblyBuffer mSmsReassemblyBuffer;
+    private NewMessageCoalescer mNewMessageCoalescer;
+    /** Built from the provider config, see {@link #invalidateProviderConfig()}. */
+    private SmsParser mSmsParser;
+    /** Built from the provider config, see {@link #invalidateProviderConfig()}. */
+    private OmtpMessageHandler mOmtpMessageHandler;
+    private SyncResolver mSyncResolver;
+    private RemoteStateJournal mRemoteStateJournal;
 
     private DependencyResolverImpl(Context appContext) {
         mAppContext = appContext;
@@ -168,6 +204,67 @@ public final class DependencyResolverImpl implements DependencyResolver {
         return mRemoteStore;
     }
 
+    @Override
+    public synchronized RemoteOperationQueue getRemoteOperationQueue() {
+        if (mRemoteOperationQueue == null) {
+            mRemoteOperationQueue = new RemoteOperationQueue(new RemoteOutboxDatabase(mAppContext),
+                    getVoicemailFetcherFactory(), getExecutorService());
+        }
+        return mRemoteOperationQueue;
+    }
+
+    @Override
+    public synchronized FetchThroughputEstimator getFetchThroughputEstimator() {
+        if (mFetchThroughputEstimator == null) {
+            mFetchThroughputEstimator = new FetchThroughputEstimator();
+        }
+        return mFetchThroughputEstimator;
+    }
+
+    @Override
+    public synchronized ContentProgressTracker getContentProgressTracker() {
+        if (mContentProgressTracker == null) {
+            mContentProgressTracker = new ContentProgressTracker(mAppContext);
+        }
+        return mContentProgressTracker;
+    }
+
+    @Override
+    public synchronized NewMessageCoalescer getNewMessageCoalescer() {
+        if (mNewMessageCoalescer == null) {
+            mNewMessageCoalescer = new NewMessageCoalescer(mAppContext, getLocalStore(),
+                    Executors.newSingleThreadScheduledExecutor(), NEW_MESSAGE_WINDOW_MILLIS);
+        }
+        return mNewMessageCoalescer;
+    }
+
+    @Override
+    public synchronized SmsReassemblyBuffer getSmsReassemblyBuffer() {
+        if (mSmsReassemblyBuffer == null) {
+            mSmsReassemblyBuffer = new SmsReassemblyBuffer(SMS_REASSEMBLY_MAX_PARTIAL_MESSAGES,
+                    SMS_REASSEMBLY_EXPIRY_MILLIS);
+        }
+        return mSmsReassemblyBuffer;
+    }
+
+    @Override
+    public synchronized SyncResolver getSyncResolver() {
+        if (mSyncResolver == null) {
+            // There is a single account, hence a single coordinator.
+            mSyncResolver = new CoalescingSyncResolver(createSyncResolver(),
+                    Executors.newSingleThreadScheduledExecutor(), SYNC_DEBOUNCE_MILLIS,
+                    SYNC_TIMEOUT_MILLIS);
+        }
+        return mSyncResolver;
+    }
+
+    private synchronized RemoteStateJournal getRemoteStateJournal() {
+        if (mRemoteStateJournal == null) {
+            mRemoteStateJournal = new RemoteStateDatabase(mAppContext);
+        }
+        return mRemoteStateJournal;
+    }
+
     private TelephonyManagerProxy createTelephonyManagerProxy() {
         return new TelephonyManagerProxyImpl(
                 (TelephonyManager) mAppContext.getSystemService(Context.TELEPHONY_SERVICE));
@@ -203,20 +300,44 @@ public final class DependencyResolverImpl implements DependencyResolver {
     }
 
     @Override
-    public OmtpMessageHandler createOmtpMessageHandler() {
-        return new OmtpMessageHandlerImpl(getLocalStore(), getAccountsStore(), createSyncResolver(),
-                createSmsParser());
+    public synchronized OmtpMessageHandler getOmtpMessageHandler() {
+        if (mOmtpMessageHandler == null) {
+            mOmtpMessageHandler = new OmtpMessageHandlerImpl(getNewMessageCoalescer(),
+                    getAccountsStore(), getSyncResolver(), getSmsParser(),
+                    getSmsReassemblyBuffer());
+        }
+        return mOmtpMessageHandler;
+    }
+
+    @Override
+    public synchronized SmsParser getSmsParser() {
+        if (mSmsParser == null) {
+            mSmsParser = createSmsParser();
+        }
+        return mSmsParser;
+    }
+
+    @Override
+    public synchronized void invalidateProviderConfig() {
+        logger.i("Provider config invalidated.");
+        mSmsParser = null;
+        mOmtpMessageHandler = null;
     }
 
     @Override
     public SmsParser createSmsParser() {
         ProviderConfig config = ProviderConfigs.getProviderConfig(getCarrierProviderName());
-        return new SmsParserImpl(new SimpleDateFormat(config.getDateFormat()));
+        return new SmsParserImpl(TimestampParser.compile(config.getDateFormat()));
     }
 
     @Override
     public SyncResolver createSyncResolver() {
-        return new SyncResolverImpl(new VvmStoreResolverImpl(),
+        // The contents left out are fetched when a voicemail client asks for them, see
+        // OmtpFetchReceiver.
+        return new SyncResolverImpl(new VvmStoreResolverImpl(getRemoteStateJournal(),
+                        DownloadPolicies.allOf(
+                                DownloadPolicies.newest(SYNC_DOWNLOAD_NEWEST_COUNT),
+                                DownloadPolicies.maxBytes(SYNC_DOWNLOAD_MAX_BYTES))),
                 new VvmStoreResolverImpl.DefaultResolvePolicy(),
                 getRemoteStore(),
                 getLocalStore());
@@ -227,7 +348,7 @@ public final class DependencyResolverImpl implements DependencyResolver {
             @Override
             public VoicemailFetcher createVoicemailFetcher() {
                 if (getUserSettings().isFakeModeEnabled()) {
-                    return new FakeVoicemailFetcher(getExecutorService(), createSmsParser());
+                    return new FakeVoicemailFetcher(getExecutorService(), getSmsParser());
                 } else {
                     return new AsyncImapVoicemailFetcher(mAppContext, getExecutorService(),
                             getAccountsStore());
@@ -237,7 +358,8 @@ public final class DependencyResolverImpl implements DependencyResolver {
     }
 
     private VvmStore createRemoteStore() {
-        return new OmtpVvmStore(getVoicemailFetcherFactory(), getExecutorService(), mAppContext);
+        return new OmtpVvmStore(getVoicemailFetcherFactory(), getExecutorService(), mAppContext,
+                getRemoteOperationQueue());
     }
 
     private VvmStore createLocalStore() {
@@ -18,6 +18,7 @@ package com.google.android.voicemail.example.fake;
 import com.google.android.voicemail.example.callbacks.Callback;
 import com.google.android.voicemail.example.core.VoicemailPayload;
 import com.google.android.voicemail.example.core.VoicemailPayloadImpl;
+import com.google.android.voicemail.example.core.VoicemailPayloadSink;
 import com.google.android.voicemail.example.sms.OmtpMessage;
 import com.google.android.voicemail.example.sms.OmtpParseException;
 import com.google.android.voicemail.example.sms.SmsParser;
@@ -28,6 +29,7 @@ import com.google.android.voicemail.example.util.VoicemailFetcher;
 import android.os.Environment;
 
 import com.example.android.voicemail.common.core.Voicemail;
+import com.example.android.voicemail.common.core.VoicemailSink;
 import com.example.android.voicemail.common.core.VoicemailImpl;
 import com.example.android.voicemail.common.logging.Logger;
 import com.example.android.voicemail.common.utils.CloseUtils;
@@ -41,7 +43,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executor;
 
 /**
@@ -89,27 +94,55 @@ public class FakeVoicemailFetcher implements VoicemailFetcher {
 
     // VoicemailFetcher interface.
     @Override
-    public void fetchAllVoicemails(final Callback<List<Voicemail>> callback) {
+    public void fetchAllVoicemails(Set<String> knownProviderData, final VoicemailSink sink,
+            final Callback<Void> callback) {
+        // Reading the message files is cheap, the voicemails are always fetched in full.
         mExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                internalFetchAllVoicemails(callback);
+                internalFetchAllVoicemails(sink, callback);
             }
         });
     }
 
-    private void internalFetchAllVoicemails(Callback<List<Voicemail>> callback) {
-        List<Voicemail> voicemails = new ArrayList<Voicemail>();
+    private void internalFetchAllVoicemails(VoicemailSink sink, Callback<Void> callback) {
         for (File msgFile : getAllMessageFiles()) {
             String providerMsgId = determineMsgIdFromMsgFileName(msgFile.getName());
             Voicemail voicemail = getVoicemailForMsg(providerMsgId);
             if (voicemail != null) {
-                voicemails.add(voicemail);
+                sink.accept(voicemail);
             } else {
                 logger.w("voicemail: " + providerMsgId + " skipped due to an error in retrieval." );
             }
         }
-        callback.onSuccess(voicemails);
+        callback.onSuccess(null);
+    }
+
+    @Override
+    public void fetchVoicemails(final List<String> providerMsgIds, final VoicemailSink sink,
+            final Callback<Void> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                internalFetchVoicemails(providerMsgIds, sink, callback);
+            }
+        });
+    }
+
+    private void internalFetchVoicemails(List<String> providerMsgIds, VoicemailSink sink,
+            Callback<Void> callback) {
+        for (String providerMsgId : providerMsgIds) {
+            if (!getMsgFile(providerMsgId).exists()) {
+                continue;
+            }
+            Voicemail voicemail = getVoicemailForMsg(providerMsgId);
+            if (voicemail != null) {
+                sink.accept(voicemail);
+            } else {
+                logger.w("voicemail: " + providerMsgId + " skipped due to an error in retrieval." );
+            }
+        }
+        callback.onSuccess(null);
     }
 
     private Voicemail getVoicemailForMsg(String providerMsgId) {
@@ -173,6 +206,60 @@ public class FakeVoicemailFetcher implements VoicemailFetcher {
         }
     }
 
+    @Override
+    public void streamVoicemailPayload(final String providerMsgId,
+            final VoicemailPayloadSink sink, final Callback<Long> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                internalStreamVoicemailPayload(providerMsgId, sink, callback);
+            }
+        });
+    }
+
+    private void internalStreamVoicemailPayload(String providerMsgId, VoicemailPayloadSink sink,
+            Callback<Long> callback) {
+        try {
+            File audioFile = getAudioFile(providerMsgId);
+            byte[] bytes = getBytesFromFile(audioFile);
+            sink.open(getMimeType(audioFile)).write(bytes);
+            callback.onSuccess(Long.valueOf(bytes.length));
+        } catch (FileNotFoundException e) {
+            callback.onFailure(e);
+        } catch (IOException e) {
+            callback.onFailure(e);
+        }
+    }
+
+    @Override
+    public void fetchVoicemailPayloads(final List<String> providerMsgIds,
+            final Callback<Map<String, VoicemailPayload>> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                internalFetchVoicemailPayloads(providerMsgIds, callback);
+            }
+        });
+    }
+
+    private void internalFetchVoicemailPayloads(List<String> providerMsgIds,
+            Callback<Map<String, VoicemailPayload>> callback) {
+        Map<String, VoicemailPayload> payloads = new HashMap<String, VoicemailPayload>();
+        for (String providerMsgId : providerMsgIds) {
+            try {
+                File audioFile = getAudioFile(providerMsgId);
+                payloads.put(providerMsgId, new VoicemailPayloadImpl(getMimeType(audioFile),
+                        getBytesFromFile(audioFile)));
+            } catch (FileNotFoundException e) {
+                logger.w("Audio file not found for: " + providerMsgId);
+            } catch (IOException e) {
+                callback.onFailure(e);
+                return;
+            }
+        }
+        callback.onSuccess(payloads);
+    }
+
     private String getMimeType(File audioFile) {
         String fileExtension = getFileExtension(audioFile);
         return "audio/ " + (fileExtension != null ? fileExtension : "unknown");
@@ -225,6 +312,11 @@ public class FakeVoicemailFetcher implements VoicemailFetcher {
         callback.onSuccess(null);
     }
 
+    @Override
+    public void cancel() {
+        // Nothing to do, fake fetches only read local files and do not hang.
+    }
+
     // Utility methods related to file handling.
     private byte[] getBytesFromFile(File file) throws IOException {
         InputStream inputStream = null;
@@ -17,6 +17,7 @@ package com.google.android.voicemail.example.imap;
 
 import com.google.android.voicemail.example.callbacks.Callback;
 import com.google.android.voicemail.example.core.VoicemailPayload;
+import com.google.android.voicemail.example.core.VoicemailPayloadSink;
 import com.google.android.voicemail.example.util.AccountDetails;
 import com.google.android.voicemail.example.util.AccountStoreWrapper;
 import com.google.android.voicemail.example.util.VoicemailFetcher;
@@ -24,10 +25,16 @@ import com.google.android.voicemail.example.util.VoicemailFetcher;
 import android.content.Context;
 
 import com.example.android.voicemail.common.core.Voicemail;
+import com.example.android.voicemail.common.core.VoicemailSink;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executor;
 
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
@@ -38,6 +45,10 @@ public class AsyncImapVoicemailFetcher implements VoicemailFetcher {
     private final Context mContext;
     private final Executor mExecutor;
     private final AccountStoreWrapper mAccountStore;
+    /** The fetchers whose session is in progress. */
+    @GuardedBy("this") private final Set<OneshotSyncImapVoicemailFetcher> mSessions =
+            new HashSet<OneshotSyncImapVoicemailFetcher>();
+    @GuardedBy("this") private boolean mCancelled;
 
     /**
      * The {@link Context} is required for handing to the underlying imap code, any context will do,
@@ -51,7 +62,8 @@ public class AsyncImapVoicemailFetcher implements VoicemailFetcher {
     }
 
     @Override
-    public void fetchAllVoicemails(final Callback<List<Voicemail>> callback) {
+    public void fetchAllVoicemails(final Set<String> knownProviderData, final VoicemailSink sink,
+            final Callback<Void> callback) {
         final AccountDetails accountDetails = getAccountDetails();
         if (accountDetails == null) {
             // Could not fetch account details. Fail!
@@ -62,8 +74,41 @@ public class AsyncImapVoicemailFetcher implements VoicemailFetcher {
         mExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                new OneshotSyncImapVoicemailFetcher(mContext, accountDetails, createImapHelper())
-                        .fetchAllVoicemails(callback);
+                OneshotSyncImapVoicemailFetcher fetcher = startSession(accountDetails, callback);
+                if (fetcher == null) {
+                    return;
+                }
+                try {
+                    fetcher.fetchAllVoicemails(knownProviderData, sink, callback);
+                } finally {
+                    endSession(fetcher);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void fetchVoicemails(final List<String> providerData, final VoicemailSink sink,
+            final Callback<Void> callback) {
+        final AccountDetails accountDetails = getAccountDetails();
+        if (accountDetails == null) {
+            // Could not fetch account details. Fail!
+            callback.onFailure(new Exception(
+                    "fetchVoicemails() failed, we can't get AccountDetails"));
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                OneshotSyncImapVoicemailFetcher fetcher = startSession(accountDetails, callback);
+                if (fetcher == null) {
+                    return;
+                }
+                try {
+                    fetcher.fetchVoicemails(providerData, sink, callback);
+                } finally {
+                    endSession(fetcher);
+                }
             }
         });
     }
@@ -81,8 +126,67 @@ public class AsyncImapVoicemailFetcher implements VoicemailFetcher {
         mExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                new OneshotSyncImapVoicemailFetcher(mContext, accountDetails, createImapHelper())
-                        .fetchVoicemailPayload(providerData, callback);
+                OneshotSyncImapVoicemailFetcher fetcher = startSession(accountDetails, callback);
+                if (fetcher == null) {
+                    return;
+                }
+                try {
+                    fetcher.fetchVoicemailPayload(providerData, callback);
+                } finally {
+                    endSession(fetcher);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void streamVoicemailPayload(final String providerData,
+            final VoicemailPayloadSink sink, final Callback<Long> callback) {
+        final AccountDetails accountDetails = getAccountDetails();
+        if (accountDetails == null) {
+            // Could not fetch account details. Fail!
+            callback.onFailure(new Exception(
+                    "streamVoicemailPayload() failed, we can't get AccountDetails"));
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                OneshotSyncImapVoicemailFetcher fetcher = startSession(accountDetails, callback);
+                if (fetcher == null) {
+                    return;
+                }
+                try {
+                    fetcher.streamVoicemailPayload(providerData, sink, callback);
+                } finally {
+                    endSession(fetcher);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void fetchVoicemailPayloads(final List<String> providerData,
+            final Callback<Map<String, VoicemailPayload>> callback) {
+        final AccountDetails accountDetails = getAccountDetails();
+        if (accountDetails == null) {
+            // Could not fetch account details. Fail!
+            callback.onFailure(new Exception(
+                    "fetchVoicemailPayloads() failed, we can't get AccountDetails"));
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                OneshotSyncImapVoicemailFetcher fetcher = startSession(accountDetails, callback);
+                if (fetcher == null) {
+                    return;
+                }
+                try {
+                    fetcher.fetchVoicemailPayloads(providerData, callback);
+                } finally {
+                    endSession(fetcher);
+                }
             }
         });
     }
@@ -108,6 +212,44 @@ public class AsyncImapVoicemailFetcher implements VoicemailFetcher {
         });
     }
 
+    /**
+     * Ends the sessions of the fetches in progress, and makes the fetches that have not started
+     * their session yet fail. Marking messages is not affected.
+     */
+    @Override
+    public void cancel() {
+        List<OneshotSyncImapVoicemailFetcher> sessions;
+        synchronized (this) {
+            mCancelled = true;
+            sessions = new ArrayList<OneshotSyncImapVoicemailFetcher>(mSessions);
+        }
+        for (OneshotSyncImapVoicemailFetcher session : sessions) {
+            session.cancel();
+        }
+    }
+
+    /**
+     * Returns the fetcher to run the session of a fetch with, or null if this fetcher has been
+     * cancelled, in which case the callback is told of the failure.
+     */
+    private OneshotSyncImapVoicemailFetcher startSession(AccountDetails accountDetails,
+            Callback<?> callback) {
+        OneshotSyncImapVoicemailFetcher fetcher =
+                new OneshotSyncImapVoicemailFetcher(mContext, accountDetails, createImapHelper());
+        synchronized (this) {
+            if (!mCancelled) {
+                mSessions.add(fetcher);
+                return fetcher;
+            }
+        }
+        callback.onFailure(new Exception("Fetch cancelled before it started"));
+        return null;
+    }
+
+    private synchronized void endSession(OneshotSyncImapVoicemailFetcher fetcher) {
+        mSessions.remove(fetcher);
+    }
+
     private AccountDetails getAccountDetails() {
         return AccountDetails.fetchFromAccountStore(mAccountStore);
     }
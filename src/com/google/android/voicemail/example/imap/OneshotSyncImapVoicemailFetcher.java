@@ -18,17 +18,15 @@ package com.google.android.voicemail.example.imap;
 import com.google.android.voicemail.example.callbacks.Callback;
 import com.google.android.voicemail.example.core.VoicemailPayload;
 import com.google.android.voicemail.example.core.VoicemailPayloadImpl;
+import com.google.android.voicemail.example.core.VoicemailPayloadSink;
 import com.google.android.voicemail.example.proxies.FolderDelegate;
 import com.google.android.voicemail.example.proxies.FolderProxy;
 import com.google.android.voicemail.example.util.AccountDetails;
 import com.google.android.voicemail.example.util.VoicemailFetcher;
 
 import android.content.Context;
-import android.util.Base64;
 
-import com.android.email.Email;
 import com.android.email.mail.Address;
-import com.android.email.mail.Body;
 import com.android.email.mail.BodyPart;
 import com.android.email.mail.FetchProfile;
 import com.android.email.mail.Flag;
@@ -37,18 +35,22 @@ import com.android.email.mail.Message;
 import com.android.email.mail.MessagingException;
 import com.android.email.mail.Multipart;
 import com.android.email.mail.Store;
+import com.android.email.mail.internet.MimePartExtractor;
 import com.android.email.mail.store.ImapStore;
 import com.example.android.voicemail.common.core.Voicemail;
 import com.example.android.voicemail.common.core.VoicemailImpl;
+import com.example.android.voicemail.common.core.VoicemailSink;
 import com.example.android.voicemail.common.logging.Logger;
-import com.example.android.voicemail.common.utils.CloseUtils;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -57,10 +59,13 @@ import javax.annotation.concurrent.ThreadSafe;
 /**
  * One-shot synchronous fetcher for voicemail from an IMAP server.
  * <p>
- * A one-shot class, construct this and then call either {@link #fetchAllVoicemails(Callback)} or
- * {@link #fetchVoicemailPayload(String, Callback)}. Subsequent calls to
- * {@link #fetchAllVoicemails(Callback)} or {@link #fetchVoicemailPayload(String, Callback)} will
- * immediately fail.
+ * A one-shot class, construct this and then call one of
+ * {@link #fetchAllVoicemails(Set, VoicemailSink, Callback)},
+ * {@link #fetchVoicemails(List, VoicemailSink, Callback)},
+ * {@link #fetchVoicemailPayload(String, Callback)},
+ * {@link #streamVoicemailPayload(String, VoicemailPayloadSink, Callback)} or
+ * {@link #fetchVoicemailPayloads(List, Callback)}.
+ * Subsequent calls to any of these methods will immediately fail.
  */
 @ThreadSafe
 /*package*/ class OneshotSyncImapVoicemailFetcher implements VoicemailFetcher {
@@ -73,6 +78,8 @@ import javax.annotation.concurrent.ThreadSafe;
     // TODO: Merge functionality of ImapHelper into this class.
     private final ImapHelper mImapHelper;
     private volatile FolderProxy mFolder;
+    /** Set by {@link #cancel()}, checked once the folder is open. */
+    private volatile boolean mCancelled;
 
     public OneshotSyncImapVoicemailFetcher(Context context, AccountDetails accountDetails,
             ImapHelper imapHelper) {
@@ -84,22 +91,63 @@ import javax.annotation.concurrent.ThreadSafe;
         mFolder = null;
     }
 
+    /**
+     * Fetches all the voicemails in the folder.
+     * <p>
+     * The structure of a message never changes, only its flags do, so only the flags of the
+     * messages with known uids are fetched: the voicemails handed for them only have their uid and
+     * read state set. The structure of the other messages is fetched with a single UID FETCH.
+     */
     @Override
-    public void fetchAllVoicemails(final Callback<List<Voicemail>> callback) {
+    public void fetchAllVoicemails(final Set<String> knownUids, final VoicemailSink sink,
+            final Callback<Void> callback) {
         executeWithFolder(
                 new Callable<Void>() {
                     @Override
                     public Void call() throws MessagingException {
-                        List<Voicemail> result = new ArrayList<Voicemail>();
-                        Message[] messages = mFolder.getMessages(null);
+                        // The search leaves out the messages flagged as deleted.
+                        Message[] messages = mFolder.getMessages(null, null);
+                        List<Message> knownMessages = new ArrayList<Message>();
+                        List<Message> newMessages = new ArrayList<Message>();
                         for (Message message : messages) {
-                            Voicemail voicemail = fetchVoicemail(message, callback);
-                            if (voicemail != null) {
-                                result.add(voicemail);
+                            if (knownUids.contains(message.getUid())) {
+                                knownMessages.add(message);
+                            } else {
+                                newMessages.add(message);
                             }
                         }
+                        logger.d(String.format("Fetching the flags of %d messages and the "
+                                + "structure of %d", knownMessages.size(), newMessages.size()));
+                        fetchReadStates(knownMessages, sink);
+                        fetchVoicemails(newMessages, sink);
                         if (!mFinished.getAndSet(true)) {
-                            callback.onSuccess(result);
+                            callback.onSuccess(null);
+                        }
+                        return null;
+                    }
+                },
+                callback);
+    }
+
+    /**
+     * Fetches the voicemails with the given uids, fetching their structure with a single UID FETCH.
+     */
+    @Override
+    public void fetchVoicemails(final List<String> uids, final VoicemailSink sink,
+            final Callback<Void> callback) {
+        executeWithFolder(
+                new Callable<Void>() {
+                    @Override
+                    public Void call() throws MessagingException {
+                        // No request is made for the given uids: messages that do not exist are
+                        // simply not returned when fetching their structure. Unlike the full
+                        // listing, the given uids are not searched with NOT DELETED, so messages
+                        // flagged as deleted, which are never expunged, are dropped here instead.
+                        Message[] messages =
+                                mFolder.getMessages(uids.toArray(new String[uids.size()]), null);
+                        fetchVoicemails(Arrays.asList(messages), sink);
+                        if (!mFinished.getAndSet(true)) {
+                            callback.onSuccess(null);
                         }
                         return null;
                     }
@@ -114,7 +162,12 @@ import javax.annotation.concurrent.ThreadSafe;
                     @Override
                     public Void call() throws MessagingException {
                         Message message = mFolder.getMessage(uid);
-                        VoicemailPayload voicemailPayload = fetchVoicemailPayload(message, callback);
+                        VoicemailPayload voicemailPayload =
+                                fetchVoicemailPayloads(new Message[] {message}, callback).get(uid);
+                        if (voicemailPayload == null) {
+                            throw new MessagingException(
+                                    "No audio attachment found on this voicemail");
+                        }
                         if (!mFinished.getAndSet(true)) {
                             callback.onSuccess(voicemailPayload);
                         }
@@ -124,6 +177,61 @@ import javax.annotation.concurrent.ThreadSafe;
                 callback);
     }
 
+    @Override
+    public void streamVoicemailPayload(final String uid, final VoicemailPayloadSink sink,
+            final Callback<Long> callback) {
+        executeWithFolder(
+                new Callable<Void>() {
+                    @Override
+                    public Void call() throws MessagingException {
+                        // Unlike getMessage(), no search is made for the uid first: if the message
+                        // does not exist, no audio is found in the response.
+                        Message[] messages = mFolder.getMessages(new String[] {uid}, null);
+                        SinkOutputStream audioData = new SinkOutputStream(sink);
+                        MimePartExtractor audioExtractor =
+                                new MimePartExtractor(MimePartExtractor.AUDIO, audioData);
+                        audioData.setExtractor(audioExtractor);
+                        logger.d("Streaming message body for " + uid);
+                        mFolder.fetch(messages, createBodyFetchProfile(audioExtractor), null);
+                        if (audioExtractor.getMatchedMimeType() == null) {
+                            throw new MessagingException(
+                                    "No audio attachment found on this voicemail");
+                        }
+                        logger.d(String.format("Streamed %s bytes of data", audioData.mCount));
+                        if (!mFinished.getAndSet(true)) {
+                            callback.onSuccess(audioData.mCount);
+                        }
+                        return null;
+                    }
+                },
+                callback);
+    }
+
+    /**
+     * Fetches the payloads of the voicemails with the given uids with a single UID FETCH.
+     */
+    @Override
+    public void fetchVoicemailPayloads(final List<String> uids,
+            final Callback<Map<String, VoicemailPayload>> callback) {
+        executeWithFolder(
+                new Callable<Void>() {
+                    @Override
+                    public Void call() throws MessagingException {
+                        // Unlike getMessage(), no search is made for the given uids: messages that
+                        // do not exist are simply not returned when fetching their body.
+                        Message[] messages =
+                                mFolder.getMessages(uids.toArray(new String[uids.size()]), null);
+                        Map<String, VoicemailPayload> voicemailPayloads =
+                                fetchVoicemailPayloads(messages, callback);
+                        if (!mFinished.getAndSet(true)) {
+                            callback.onSuccess(voicemailPayloads);
+                        }
+                        return null;
+                    }
+                },
+                callback);
+    }
+
     @Override
     public void markMessagesAsRead(Callback<Void> callback, Voicemail... voicemails) {
         mImapHelper.markMessagesAsRead(callback, voicemails);
@@ -134,6 +242,23 @@ import javax.annotation.concurrent.ThreadSafe;
         mImapHelper.markMessagesAsDeleted(callback, voicemails);
     }
 
+    /**
+     * Closes the connection of the folder of the fetch in progress, if any, which then fails. A
+     * fetch started afterwards fails as soon as its folder is open.
+     */
+    @Override
+    public void cancel() {
+        mCancelled = true;
+        FolderProxy folder = mFolder;
+        if (folder != null) {
+            try {
+                folder.abort();
+            } catch (MessagingException e) {
+                logger.e("failure while aborting folder", e);
+            }
+        }
+    }
+
     /**
      * Executes the given runnable while the inbox folder is open.
      * <p>
@@ -150,6 +275,10 @@ import javax.annotation.concurrent.ThreadSafe;
         try {
             mFolder = openFolder("inbox");
             mFolder.open(Folder.OpenMode.READ_ONLY, null);
+            // The folder is set before it is opened, so a cancel() that missed it is seen here.
+            if (mCancelled) {
+                throw new MessagingException("Fetch cancelled");
+            }
             callable.call();
             closeMailbox();
         } catch (Exception e) {
@@ -172,7 +301,6 @@ import javax.annotation.concurrent.ThreadSafe;
 
     // Visible for testing.
     protected FolderProxy openFolder(String name) throws MessagingException {
-        Email.setTempDirectory(mContext);
         Store store = ImapStore.newInstance(mAccountDetails.getUriString(), mContext, null);
         return new FolderDelegate(store.getFolder(name));
     }
@@ -209,23 +337,6 @@ import javax.annotation.concurrent.ThreadSafe;
         return null;
     }
 
-    private VoicemailPayload getVoicemailPayloadFromMessage(Message message)
-            throws MessagingException, IOException {
-        Multipart multipart = (Multipart) message.getBody();
-        logger.d("Num body parts: " + multipart.getCount());
-        for (int i = 0; i < multipart.getCount(); ++i) {
-            BodyPart bodyPart = multipart.getBodyPart(i);
-            String bodyPartMimeType = bodyPart.getMimeType().toLowerCase();
-            logger.d("bodyPart mime type: " + bodyPartMimeType);
-            if (bodyPartMimeType.startsWith("audio/")) {
-                byte[] bytes = getAudioDataFromBody(bodyPart.getBody());
-                logger.d(String.format("Fetched %s bytes of data", bytes.length));
-                return new VoicemailPayloadImpl(bodyPartMimeType, bytes);
-            }
-        }
-        throw new MessagingException("No audio attachment found on this voicemail");
-    }
-
     /** Sets the mailbox and read status */
     private void setMailBoxAndReadStatus(VoicemailImpl.Builder voicemailBuilder, Flag[] flags) {
         List<Flag> flagList = Arrays.asList(flags);
@@ -268,65 +379,97 @@ import javax.annotation.concurrent.ThreadSafe;
         }
     }
 
-    private byte[] getAudioDataFromBody(Body body) throws IOException, MessagingException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        BufferedOutputStream bufferedOut = new BufferedOutputStream(out);
-        try {
-            body.writeTo(bufferedOut);
-        } finally {
-            CloseUtils.closeQuietly(bufferedOut);
-        }
-        return Base64.decode(out.toByteArray(), Base64.DEFAULT);
-    }
-
     /**
-     * Fetches the structure of the given message and returns the voicemail parsed from it.
+     * Fetches the structure of the given messages with a single UID FETCH, and hands the voicemails
+     * parsed from them to the sink. Messages that are flagged as deleted, or that are not
+     * voicemails, are skipped.
      *
-     * @throws MessagingException if fetching the structure of the message fails
+     * @throws MessagingException if fetching or parsing the structure of a message fails
      */
-    private Voicemail fetchVoicemail(Message message, Callback<?> failureCallback)
+    private void fetchVoicemails(List<Message> messages, VoicemailSink sink)
             throws MessagingException {
         FetchProfile fetchProfile = new FetchProfile();
         fetchProfile.addAll(Arrays.asList(FetchProfile.Item.FLAGS, FetchProfile.Item.ENVELOPE,
                 FetchProfile.Item.STRUCTURE));
-        logger.d("Fetching message structure for " + message.getUid());
-        MessageStructureFetchedListener listener =
-                new MessageStructureFetchedListener(failureCallback);
-        mFolder.fetch(new Message[] {message}, fetchProfile, listener);
-        return listener.getVoicemail();
+        logger.d("Fetching message structure for " + messages.size() + " messages");
+        MessageStructureFetchedListener listener = new MessageStructureFetchedListener(sink);
+        mFolder.fetch(messages.toArray(new Message[messages.size()]), fetchProfile, listener);
+        listener.throwIfFailed();
     }
 
     /**
-     * Fetches the body of the given message and returns the parsed voicemail payload.
+     * Fetches the flags of the given messages with a single UID FETCH, and hands the sink a
+     * voicemail with only the uid and read state of each of them. Messages that are flagged as
+     * deleted are skipped.
      *
-     * @throws MessagingException if fetching the body of the message fails
+     * @throws MessagingException if fetching the flags fails
      */
-    private VoicemailPayload fetchVoicemailPayload(Message message, Callback<?> failureCallback)
+    private void fetchReadStates(List<Message> messages, final VoicemailSink sink)
             throws MessagingException {
         FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(FetchProfile.Item.FLAGS);
+        mFolder.fetch(messages.toArray(new Message[messages.size()]), fetchProfile,
+                new Folder.MessageRetrievalListener() {
+                    @Override
+                    public void messageRetrieved(Message message) {
+                        if (message.isSet(Flag.DELETED)) {
+                            return;
+                        }
+                        VoicemailImpl.Builder voicemailBuilder = VoicemailImpl.createEmptyBuilder()
+                                .setSourceData(message.getUid());
+                        setMailBoxAndReadStatus(voicemailBuilder, message.getFlags());
+                        sink.accept(voicemailBuilder.build());
+                    }
+                });
+    }
+
+    /**
+     * Fetches the bodies of the given messages and returns the parsed voicemail payloads, keyed by
+     * uid. Messages without an audio attachment are missing from the result.
+     *
+     * @throws MessagingException if fetching the bodies of the messages fails
+     */
+    private Map<String, VoicemailPayload> fetchVoicemailPayloads(Message[] messages,
+            Callback<?> failureCallback) throws MessagingException {
+        // Only the first audio attachment is needed, so rather than parsing the whole message into
+        // a tree of parts we stream the decoded audio straight out of the fetched body.
+        ByteArrayOutputStream audioData = new ByteArrayOutputStream();
+        MimePartExtractor audioExtractor =
+                new MimePartExtractor(MimePartExtractor.AUDIO, audioData);
+        logger.d("Fetching message bodies for " + messages.length + " messages");
+        MessageBodyFetchedListener listener =
+                new MessageBodyFetchedListener(audioExtractor, audioData);
+        mFolder.fetch(messages, createBodyFetchProfile(audioExtractor), listener);
+        return listener.getVoicemailPayloads();
+    }
+
+    /** Returns a profile to fetch the body of messages, decoding their audio with the extractor. */
+    private FetchProfile createBodyFetchProfile(MimePartExtractor audioExtractor) {
+        FetchProfile fetchProfile = new FetchProfile();
         fetchProfile.add(FetchProfile.Item.BODY);
-        logger.d("Fetching message body for " + message.getUid());
-        MessageBodyFetchedListener listener = new MessageBodyFetchedListener(failureCallback);
-        mFolder.fetch(new Message[] {message}, fetchProfile, listener);
-        return listener.getVoicemailPayload();
+        fetchProfile.add(audioExtractor);
+        return fetchProfile;
     }
 
     /**
-     * Listener for the message structure being fetched.
+     * Listener for the message structures being fetched, which hands the voicemails to the sink.
      * <p>
-     * In case of failure, it calls {@link #handleFailure(Exception, Callback)}.
+     * A failure to parse a message is kept, and thrown by {@link #throwIfFailed()} once the fetch
+     * is done, rather than failing in the middle of reading the responses.
      */
     private final class MessageStructureFetchedListener implements Folder.MessageRetrievalListener {
-        private final Callback<?> mFailureCallback;
+        private final VoicemailSink mSink;
 
-        private Voicemail mVoicemail;
+        private MessagingException mFailure;
 
-        public MessageStructureFetchedListener(Callback<?> failureCallback) {
-            mFailureCallback = failureCallback;
+        public MessageStructureFetchedListener(VoicemailSink sink) {
+            mSink = sink;
         }
 
-        public Voicemail getVoicemail() {
-            return mVoicemail;
+        public void throwIfFailed() throws MessagingException {
+            if (mFailure != null) {
+                throw mFailure;
+            }
         }
 
         @Override
@@ -335,35 +478,45 @@ import javax.annotation.concurrent.ThreadSafe;
             logger.d("Message retrieved: " + message);
             // TODO: Get rid of the detailed message logging when we are done with testing.
             logger.d(debugStringForMessage(message));
+            if (mFailure != null) {
+                return;
+            }
             try {
-                mVoicemail = getVoicemailFromMessage(message);
-                if (mVoicemail == null) {
+                Voicemail voicemail = getVoicemailFromMessage(message);
+                if (voicemail == null) {
                     logger.d("This voicemail does not have an attachment...");
                     return;
                 }
+                if (!message.isSet(Flag.DELETED)) {
+                    mSink.accept(voicemail);
+                }
             } catch (MessagingException e) {
-                handleFailure(e, mFailureCallback);
+                mFailure = e;
             }
         }
     }
 
     /**
-     * Listener for the message body being fetched.
+     * Listener for the message bodies being fetched.
      * <p>
-     * In case of failure, it calls {@link #handleFailure(Exception, Callback)}.
+     * The audio of each message is decoded into the same sink, which is drained after each message.
      */
     private final class MessageBodyFetchedListener implements Folder.MessageRetrievalListener {
-        private final Callback<?> mFailureCallback;
+        private final MimePartExtractor mAudioExtractor;
+        private final ByteArrayOutputStream mAudioData;
 
-        private VoicemailPayload mVoicemailPayload;
+        private final Map<String, VoicemailPayload> mVoicemailPayloads =
+                new HashMap<String, VoicemailPayload>();
 
-        public MessageBodyFetchedListener(Callback<?> failureCallback) {
-            mFailureCallback = failureCallback;
+        public MessageBodyFetchedListener(MimePartExtractor audioExtractor,
+                ByteArrayOutputStream audioData) {
+            mAudioExtractor = audioExtractor;
+            mAudioData = audioData;
         }
 
-        /** Returns the fetch voicemail payload. */
-        public VoicemailPayload getVoicemailPayload() {
-            return mVoicemailPayload;
+        /** Returns the fetched voicemail payloads, keyed by uid. */
+        public Map<String, VoicemailPayload> getVoicemailPayloads() {
+            return mVoicemailPayloads;
         }
 
         @Override
@@ -376,13 +529,49 @@ import javax.annotation.concurrent.ThreadSafe;
                 // Once we've finished, i.e. reported a callback, we ignore further messages.
                 return;
             }
-            try {
-                mVoicemailPayload = getVoicemailPayloadFromMessage(message);
-            } catch (MessagingException e) {
-                handleFailure(e, mFailureCallback);
-            } catch (IOException e) {
-                handleFailure(e, mFailureCallback);
+            String mimeType = mAudioExtractor.getMatchedMimeType();
+            if (mimeType == null) {
+                logger.w("No audio attachment found on voicemail " + message.getUid());
+            } else {
+                byte[] bytes = mAudioData.toByteArray();
+                logger.d(String.format("Fetched %s bytes of data", bytes.length));
+                mVoicemailPayloads.put(message.getUid(), new VoicemailPayloadImpl(mimeType, bytes));
+            }
+            mAudioData.reset();
+            mAudioExtractor.reset();
+        }
+    }
+
+    /**
+     * Passes the audio decoded by an extractor on to a {@link VoicemailPayloadSink}, opening it
+     * with the mime type of the audio when the first bytes are decoded.
+     */
+    private static final class SinkOutputStream extends OutputStream {
+        private final VoicemailPayloadSink mSink;
+        private MimePartExtractor mExtractor;
+        private OutputStream mOutputStream;
+        private long mCount;
+
+        public SinkOutputStream(VoicemailPayloadSink sink) {
+            mSink = sink;
+        }
+
+        public void setExtractor(MimePartExtractor extractor) {
+            mExtractor = extractor;
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            write(new byte[] {(byte) oneByte}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            if (mOutputStream == null) {
+                mOutputStream = mSink.open(mExtractor.getMatchedMimeType());
             }
+            mOutputStream.write(buffer, offset, count);
+            mCount += count;
         }
     }
 }
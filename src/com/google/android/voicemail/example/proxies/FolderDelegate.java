@@ -49,6 +49,11 @@ public class FolderDelegate implements FolderProxy {
         mDelegate.close(a);
     }
 
+    @Override
+    public void abort() throws MessagingException {
+        mDelegate.abort();
+    }
+
     @Override
     public void delete(boolean a) throws MessagingException {
         mDelegate.delete(a);
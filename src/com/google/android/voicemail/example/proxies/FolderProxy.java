@@ -26,6 +26,7 @@ public interface FolderProxy {
     public String getName();
     public Message getMessage(String a) throws MessagingException;
     public void close(boolean a) throws MessagingException;
+    public void abort() throws MessagingException;
     public void delete(boolean a) throws MessagingException;
     public boolean create(Folder.FolderType a) throws MessagingException;
     public void open(Folder.OpenMode a, Folder.PersistentDataCallbacks b) throws MessagingException;
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.receiver;
+
+import com.google.android.voicemail.example.callbacks.Callbacks;
+import com.google.android.voicemail.example.dependency.DependencyResolverImpl;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+
+import com.example.android.voicemail.common.logging.Logger;
+
+/**
+ * A broadcast receiver that listens to connectivity changes and, once the network is available
+ * again, sends the remote operations that could not be sent while it was not.
+ */
+public class ConnectivityChangeReceiver extends BroadcastReceiver {
+    private static final Logger logger = Logger.getLogger(ConnectivityChangeReceiver.class);
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        logger.d(String.format("New intent received: %s", intent));
+        if (ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
+            if (intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+                logger.d("No connectivity. Ignored!");
+                return;
+            }
+            DependencyResolverImpl.getInstance().getRemoteOperationQueue().flush(
+                    Callbacks.<Void>emptyCallback());
+        }
+    }
+}
@@ -49,7 +49,7 @@ public class FakeOmtpMessageReceiver extends BroadcastReceiver {
             String msgBody = intent.getStringExtra(EXTRA_MESSAGE_BODY);
             logger.d("Received msg: " + msgBody);
             if (msgBody != null) {
-                dependencyResolver.createOmtpMessageHandler().process(msgBody);
+                dependencyResolver.getOmtpMessageHandler().process(msgBody);
             }
         }
     }
@@ -22,6 +22,8 @@ import com.google.android.voicemail.example.sync.OmtpVvmStore;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
+import android.provider.VoicemailContract;
 
 import com.example.android.voicemail.common.logging.Logger;
 
@@ -46,6 +48,15 @@ public class OmtpFetchReceiver extends BroadcastReceiver {
                     context, OmtpFetchService.class);
             VoicemailIntentUtils.copyExtrasBetween(intent, outgoing);
             context.startService(outgoing);
+        } else if (intent != null
+                && VoicemailContract.ACTION_FETCH_VOICEMAIL.equals(intent.getAction())) {
+            // Sent by a voicemail client that wants the content of a voicemail, it only gives the
+            // Uri of the voicemail and carries none of our extras.
+            Intent outgoing = new Intent(intent.getAction(), intent.getData(),
+                    context, OmtpFetchService.class);
+            VoicemailIntentUtils.storeRequestTimeInIntent(outgoing,
+                    SystemClock.elapsedRealtime());
+            context.startService(outgoing);
         }
     }
 }
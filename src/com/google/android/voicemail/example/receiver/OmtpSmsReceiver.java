@@ -40,7 +40,7 @@ public class OmtpSmsReceiver extends BroadcastReceiver {
         logger.i(intent.getAction() + ", Port: " + intent.getData().getPort());
         Bundle bundle = intent.getExtras();
         if (bundle != null) {
-            DependencyResolverImpl.getInstance().createOmtpMessageHandler()
+            DependencyResolverImpl.getInstance().getOmtpMessageHandler()
                     .process((Object[]) bundle.get("pdus"));
         }
     }
@@ -44,7 +44,7 @@ public class ProviderChangeReceiver extends BroadcastReceiver {
             // Sync is required only if the change was not triggered by self.
             if (!intent.getBooleanExtra(VoicemailContract.EXTRA_SELF_CHANGE, false)) {
                 // TODO: We can optimize this to perform sync of only affected messages.
-                DependencyResolverImpl.getInstance().createSyncResolver().syncAllMessages(
+                DependencyResolverImpl.getInstance().getSyncResolver().syncAllMessages(
                         Callbacks.<Void>emptyCallback());
             } else {
                 logger.d("Changed by self. Ignored!");
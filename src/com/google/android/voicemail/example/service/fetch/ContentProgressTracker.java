@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.service.fetch;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import com.example.android.voicemail.common.core.VoicemailContentOutputStream;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Publishes how much of the content of each voicemail being downloaded progressively can be read.
+ * <p>
+ * The has content flag of a voicemail is only set once its download has finished, so that apps
+ * that only look at the flag never play a truncated file. A player can nevertheless start playing
+ * a voicemail before then:
+ * <ul>
+ * <li>in other apps, by listening to {@link #ACTION_CONTENT_PROGRESS}, which is broadcast as soon
+ * as the first bytes can be read and then each time the readable prefix has grown by
+ * {@link VoicemailContentOutputStream#NOTIFY_INTERVAL_BYTES};</li>
+ * <li>within this app, by polling {@link #getReadablePrefixLength(Uri)}.</li>
+ * </ul>
+ * Either way, the player should not read beyond the readable prefix until the download has
+ * finished.
+ */
+@ThreadSafe
+public class ContentProgressTracker implements VoicemailContentOutputStream.Listener {
+    /** Returned for the voicemails that are not being downloaded. */
+    public static final long NOT_IN_PROGRESS = -1;
+
+    /**
+     * Broadcast as the readable prefix of the content of a voicemail grows, with the Uri of the
+     * voicemail as data and the length of the prefix in {@link #EXTRA_READABLE_LENGTH}.
+     * <p>
+     * A last broadcast with a length of {@link #NOT_IN_PROGRESS} is sent once the download has
+     * finished, after which the has content flag of the voicemail tells whether all of its
+     * content or none of it can be read.
+     */
+    public static final String ACTION_CONTENT_PROGRESS =
+            "com.google.android.apps.vvm.VOICEMAIL_CONTENT_PROGRESS";
+    /** The long extra of {@link #ACTION_CONTENT_PROGRESS} holding the readable length. */
+    public static final String EXTRA_READABLE_LENGTH =
+            ContentProgressTracker.class.getName() + ".READABLE_LENGTH";
+
+    private final Context mContext; // For sending the progress broadcasts.
+
+    /** The readable prefix of the content being downloaded, keyed by voicemail Uri. */
+    @GuardedBy("this") private final Map<String, Long> mReadablePrefixLengths =
+            new HashMap<String, Long>();
+    /** The readable prefix last broadcast for the content being downloaded, keyed by Uri. */
+    @GuardedBy("this") private final Map<String, Long> mBroadcastLengths =
+            new HashMap<String, Long>();
+
+    public ContentProgressTracker(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Returns the number of bytes of the content of the voicemail that can be read so far, or
+     * {@link #NOT_IN_PROGRESS} if its content is not being downloaded, in which case either all of
+     * it or none of it can be read, as given by the has content flag of the voicemail.
+     */
+    public synchronized long getReadablePrefixLength(Uri voicemailUri) {
+        Long length = mReadablePrefixLengths.get(voicemailUri.toString());
+        return length == null ? NOT_IN_PROGRESS : length;
+    }
+
+    @Override
+    public void onReadablePrefixChanged(Uri voicemailUri, long length) {
+        boolean broadcast;
+        synchronized (this) {
+            String key = voicemailUri.toString();
+            mReadablePrefixLengths.put(key, length);
+            Long broadcastLength = mBroadcastLengths.get(key);
+            broadcast = broadcastLength == null || length - broadcastLength
+                    >= VoicemailContentOutputStream.NOTIFY_INTERVAL_BYTES;
+            if (broadcast) {
+                mBroadcastLengths.put(key, length);
+            }
+        }
+        if (broadcast) {
+            sendProgressBroadcast(voicemailUri, length);
+        }
+    }
+
+    @Override
+    public void onContentFinished(Uri voicemailUri, boolean complete) {
+        synchronized (this) {
+            mReadablePrefixLengths.remove(voicemailUri.toString());
+            mBroadcastLengths.remove(voicemailUri.toString());
+        }
+        sendProgressBroadcast(voicemailUri, NOT_IN_PROGRESS);
+    }
+
+    private void sendProgressBroadcast(Uri voicemailUri, long length) {
+        Intent intent = new Intent(ACTION_CONTENT_PROGRESS, voicemailUri);
+        intent.putExtra(EXTRA_READABLE_LENGTH, length);
+        mContext.sendBroadcast(intent);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.service.fetch;
+
+import com.example.android.voicemail.common.logging.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Keeps a moving estimate of the round trip time and bandwidth of each account, from the duration
+ * of the past downloads, and derives the timeouts of new downloads from it.
+ * <p>
+ * The duration of a download is modelled as a fixed round trip time, which covers opening the IMAP
+ * session and sending the request, plus the expected number of bytes divided by the bandwidth.
+ * Both are fitted by least squares over the past downloads, with exponential forgetting so that the
+ * estimate follows the current network. Until downloads of different sizes have been seen the
+ * round trip time cannot be told apart from the bandwidth, and the default round trip time is
+ * assumed.
+ * <p>
+ * A download that times out is recorded once, with its real duration if it completes late, or
+ * else as if it had completed at the timeout, which is a lower bound of its real duration, so that
+ * the next timeouts are longer. The number of timeouts is kept and logged along with the estimate
+ * for tuning.
+ */
+@ThreadSafe
+public class FetchThroughputEstimator {
+    private static final Logger logger = Logger.getLogger(FetchThroughputEstimator.class);
+
+    /** The round trip time assumed for an account with no downloads yet. */
+    private static final double DEFAULT_RTT_MS = 2000;
+    /** The bandwidth assumed for an account with no downloads yet, in bytes per ms. */
+    private static final double DEFAULT_BYTES_PER_MS = 12;
+    /** The weight kept by past downloads each time a new one is recorded. */
+    private static final double DECAY = 0.8;
+    /** How many times longer than expected a download may take before it times out. */
+    private static final double TIMEOUT_FACTOR = 2;
+    private static final long MIN_TIMEOUT_MS = 5000;
+    private static final long MAX_TIMEOUT_MS = 180000;
+
+    @GuardedBy("this") private final Map<String, AccountEstimate> mEstimates =
+            new HashMap<String, AccountEstimate>();
+
+    /**
+     * Returns how long to wait for the download of the given number of bytes from the given
+     * account before giving up.
+     */
+    public synchronized long getTimeoutMillis(String account, long expectedBytes) {
+        AccountEstimate estimate = getEstimate(account);
+        double expectedMillis =
+                estimate.getRttMillis() + expectedBytes / estimate.getBytesPerMilli();
+        return Math.max(MIN_TIMEOUT_MS,
+                Math.min(MAX_TIMEOUT_MS, Math.round(TIMEOUT_FACTOR * expectedMillis)));
+    }
+
+    /** Records a download of the given number of bytes from the given account. */
+    public synchronized void recordDownload(String account, long bytes, long elapsedMillis) {
+        AccountEstimate estimate = getEstimate(account);
+        estimate.addSample(bytes, elapsedMillis);
+        ++estimate.mDownloads;
+        log(account, estimate);
+    }
+
+    /**
+     * Records a download of the given number of bytes from the given account, that did not
+     * complete before its timeout and took at least the given time.
+     */
+    public synchronized void recordTimeout(String account, long bytes, long elapsedMillis) {
+        AccountEstimate estimate = getEstimate(account);
+        estimate.addSample(bytes, elapsedMillis);
+        ++estimate.mTimeouts;
+        log(account, estimate);
+    }
+
+    @GuardedBy("this")
+    private AccountEstimate getEstimate(String account) {
+        AccountEstimate estimate = mEstimates.get(account);
+        if (estimate == null) {
+            estimate = new AccountEstimate();
+            mEstimates.put(account, estimate);
+        }
+        return estimate;
+    }
+
+    private void log(String account, AccountEstimate estimate) {
+        logger.d(String.format("%s: rtt %d ms, bandwidth %d B/s, %d timeouts, %d downloads",
+                account, Math.round(estimate.getRttMillis()),
+                Math.round(estimate.getBytesPerMilli() * 1000), estimate.mTimeouts,
+                estimate.mDownloads));
+    }
+
+    /** The weighted sums of the samples of one account, from which the estimate is fitted. */
+    private static final class AccountEstimate {
+        private double mWeight;
+        private double mSumBytes;
+        private double mSumMillis;
+        private double mSumBytesSquared;
+        private double mSumBytesMillis;
+        private int mTimeouts;
+        private int mDownloads;
+
+        public void addSample(long bytes, long millis) {
+            mWeight = mWeight * DECAY + 1;
+            mSumBytes = mSumBytes * DECAY + bytes;
+            mSumMillis = mSumMillis * DECAY + millis;
+            mSumBytesSquared = mSumBytesSquared * DECAY + (double) bytes * bytes;
+            mSumBytesMillis = mSumBytesMillis * DECAY + (double) bytes * millis;
+        }
+
+        /** Returns the number of ms per byte fitted to the samples, or NaN if it cannot be. */
+        private double getMillisPerByte() {
+            double variance = mWeight * mSumBytesSquared - mSumBytes * mSumBytes;
+            // Below this, the samples are all about the same size.
+            if (mWeight == 0 || variance <= 1e-6 * mWeight * mSumBytesSquared) {
+                return Double.NaN;
+            }
+            double slope = (mWeight * mSumBytesMillis - mSumBytes * mSumMillis) / variance;
+            return slope > 0 ? slope : Double.NaN;
+        }
+
+        public double getRttMillis() {
+            if (mWeight == 0) {
+                return DEFAULT_RTT_MS;
+            }
+            double millisPerByte = getMillisPerByte();
+            if (Double.isNaN(millisPerByte)) {
+                return Math.min(DEFAULT_RTT_MS, mSumMillis / mWeight);
+            }
+            return Math.max(0, (mSumMillis - millisPerByte * mSumBytes) / mWeight);
+        }
+
+        public double getBytesPerMilli() {
+            if (mWeight == 0 || mSumBytes == 0) {
+                return DEFAULT_BYTES_PER_MS;
+            }
+            double millisPerByte = getMillisPerByte();
+            if (Double.isNaN(millisPerByte)) {
+                // Attribute whatever the round trip time does not explain to the transfer.
+                double transferMillis = mSumMillis / mWeight - getRttMillis();
+                if (transferMillis <= 0) {
+                    return DEFAULT_BYTES_PER_MS;
+                }
+                return (mSumBytes / mWeight) / transferMillis;
+            }
+            return 1 / millisPerByte;
+        }
+    }
+}
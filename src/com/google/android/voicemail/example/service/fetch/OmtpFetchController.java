@@ -18,126 +18,786 @@ package com.google.android.voicemail.example.service.fetch;
 import com.google.android.voicemail.example.callbacks.Callback;
 import com.google.android.voicemail.example.core.VoicemailIntentUtils;
 import com.google.android.voicemail.example.core.VoicemailPayload;
+import com.google.android.voicemail.example.core.VoicemailPayloadSink;
+import com.google.android.voicemail.example.sync.DownloadPolicies;
 import com.google.android.voicemail.example.sync.VoicemailFetcherFactory;
+import com.google.android.voicemail.example.util.AccountDetails;
+import com.google.android.voicemail.example.util.AccountStoreWrapper;
+import com.google.android.voicemail.example.util.VoicemailFetcher;
 
 import android.content.Intent;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.VoicemailContract;
 
 import com.example.android.voicemail.common.core.Voicemail;
+import com.example.android.voicemail.common.core.VoicemailContentOutputStream;
 import com.example.android.voicemail.common.core.VoicemailProviderHelper;
 import com.example.android.voicemail.common.logging.Logger;
 
 import java.io.IOException;
-import java.util.concurrent.CountDownLatch;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * Contains the logic for handling fetch requests on behalf of the {@link OmtpFetchService}.
  * <p>
- * This class is not thread safe for concurrent access. The calls to the
- * {@link #onHandleFetchIntent(Intent)} method will be made sequentially with a guarantee of memory
- * visibility between calls, see the {@link OmtpFetchService} class documentation for more details.
+ * Each voicemail named by a fetch intent is queued, and fetches are fully asynchronous:
+ * {@link #onHandleFetchIntent(Intent)} returns as soon as the voicemails are queued, and the
+ * payloads are written to the content provider by the callback of the fetch, which then starts the
+ * next one. No thread is blocked waiting for a fetch to complete.
  * <p>
- * Note also that the fetch operation should complete before {@link #onHandleFetchIntent(Intent)}
- * method returns, i.e. should not be performed by yet another background thread, else our original
- * caller will think that we are done and may begin performing the next fetch immediately.
+ * The same voicemail is often requested several times, e.g., by the insert of a resolve and again
+ * by the next resolve while its content is still missing. The voicemails queued or in flight are
+ * therefore kept in a registry keyed by source data, and a request for one of them is merged onto
+ * the existing fetch rather than starting another one.
+ * <p>
+ * Queued voicemails are grouped into batches of up to {@link #MAX_VOICEMAILS_PER_BATCH}, each
+ * fetched with a single multi-uid IMAP request over its own connection, and at most a fixed number
+ * of batches are in flight at the same time. When a slot is free, the next batch is started after
+ * {@link #BATCH_WINDOW_MS}, so that requests arriving close together end up in the same batch.
+ * <p>
+ * Long voicemails, expected to be at least {@link #PROGRESSIVE_MIN_BYTES}, are not batched. Each
+ * one is fetched on its own and its content is written to the content provider as it is decoded,
+ * so that players told of its progress by the {@link ContentProgressTracker} can play it before
+ * the download has finished. Like for any other fetch, the voicemail only counts as playable for
+ * the time to first playable voicemail once its content is complete.
+ * <p>
+ * A fetch intent sent by a new message notification, see
+ * {@link OmtpFetchService#createPrefetchIntent}, starts its fetch straight away rather than after
+ * the batch window, and its expected size is taken from the length given by the notification. So
+ * does a {@link VoicemailContract#ACTION_FETCH_VOICEMAIL} intent, sent by a voicemail client for a
+ * voicemail the user wants to play, e.g., one whose download a sync left out.
+ * <p>
+ * A batch that has not completed in time is given up, and its voicemails are removed from the
+ * registry so that a new request fetches them again. The timeout is derived from the expected size
+ * of the batch and from the throughput measured on the past downloads of the account, see
+ * {@link FetchThroughputEstimator}, to which the duration of each batch and each timeout are
+ * reported. The session of a batch given up is closed, see {@link VoicemailFetcher#cancel()}, and
+ * the batch keeps its slot until the session has ended, so that no more sessions than slots are
+ * open. Should the session not end, the slot is freed anyway after
+ * {@link #SESSION_CLOSE_GRACE_MS}, so that hung sessions cannot hold every slot.
+ * <p>
+ * The {@link Listener} is told when the last fetch has completed and the last session has ended,
+ * along with the start id of the service that was recorded with the last intent.
  */
-@NotThreadSafe
+@ThreadSafe
 public class OmtpFetchController {
     private static final Logger logger = Logger.getLogger(OmtpFetchController.class);
 
-    /** Over a 3G network, fetching one message by IMAP can take > 10s. */
-    private static final long TIME_TO_WAIT_FOR_RESULT_MS = 20000;
+    /** How long to wait for more requests before starting a batch. */
+    private static final long BATCH_WINDOW_MS = 200;
+    /**
+     * The payloads of a batch are only written once all of them have been downloaded, so keep
+     * batches small enough for the first voicemail to become playable quickly.
+     */
+    private static final int MAX_VOICEMAILS_PER_BATCH = 4;
+    /** The expected size from which a voicemail is fetched progressively, about 40s of audio. */
+    private static final long PROGRESSIVE_MIN_BYTES = 64 * 1024;
+    /** How long a batch given up keeps its slot at most, while its session is being closed. */
+    private static final long SESSION_CLOSE_GRACE_MS = 5000;
+
+    /** Receives the notifications of the controller. */
+    public interface Listener {
+        /**
+         * Called when there are no fetches left, either queued or in flight.
+         *
+         * @param startId the start id handed with the last intent, which the service can be
+         *        stopped with without missing an intent that arrived in the meantime
+         */
+        public void onIdle(int startId);
+    }
 
     private final VoicemailFetcherFactory mVoicemailFetcherFactory;
     private final VoicemailProviderHelper mVoicemailProviderHelper;
+    private final AccountStoreWrapper mAccountStore;
+    private final FetchThroughputEstimator mThroughputEstimator;
+    private final ContentProgressTracker mContentProgressTracker;
+    private final ScheduledExecutorService mScheduler;
+    private final int mMaxConcurrentBatches;
+    private final Listener mListener;
+
+    /** The voicemails queued or in flight, keyed by source data. */
+    @GuardedBy("this") private final Map<String, PendingFetch> mFetches =
+            new HashMap<String, PendingFetch>();
+    /** The voicemails waiting for a free slot, in the order they were requested. */
+    @GuardedBy("this") private final Queue<PendingFetch> mQueue = new ArrayDeque<PendingFetch>();
+    /** The number of batches started and not yet completed. */
+    @GuardedBy("this") private int mInFlightBatches;
+    /** Whether the next batch has been scheduled to start after the batch window. */
+    @GuardedBy("this") private boolean mBatchScheduled;
+    /** The start id handed with the last intent. */
+    @GuardedBy("this") private int mLastStartId;
+    /** The number of voicemails requested by Uri and not looked up yet. */
+    @GuardedBy("this") private int mPendingLookUps;
 
+    /**
+     * @param accountStore the account the voicemails are fetched from
+     * @param throughputEstimator gives the timeouts of the account, and is told of the outcomes
+     * @param contentProgressTracker told of the progress of the voicemails fetched progressively
+     * @param scheduler used to start batches and to give up the ones that take too long
+     * @param maxConcurrentBatches the maximum number of batches in flight at any time
+     * @param listener notified when the controller becomes idle
+     */
     public OmtpFetchController(VoicemailFetcherFactory voicemailFetcherFactory,
-            VoicemailProviderHelper voicemailProviderHelper) {
+            VoicemailProviderHelper voicemailProviderHelper, AccountStoreWrapper accountStore,
+            FetchThroughputEstimator throughputEstimator,
+            ContentProgressTracker contentProgressTracker, ScheduledExecutorService scheduler,
+            int maxConcurrentBatches, Listener listener) {
+        if (maxConcurrentBatches < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid number of concurrent batches: " + maxConcurrentBatches);
+        }
         mVoicemailFetcherFactory = voicemailFetcherFactory;
         mVoicemailProviderHelper = voicemailProviderHelper;
+        mAccountStore = accountStore;
+        mThroughputEstimator = throughputEstimator;
+        mContentProgressTracker = contentProgressTracker;
+        mScheduler = scheduler;
+        mMaxConcurrentBatches = maxConcurrentBatches;
+        mListener = listener;
     }
 
-    public void onHandleFetchIntent(Intent intent) {
+    /**
+     * Queues the fetch of the voicemails named by the intent, merging the ones that are already
+     * queued or in flight onto the existing fetch.
+     * <p>
+     * The start id is recorded under the same lock as the fetches, so that the {@link Listener}
+     * is never handed the start id of an intent whose fetches are not queued yet. If there is
+     * nothing left to fetch, the listener is told straight away.
+     *
+     * @param intent the fetch intent, or null if the service was restarted without one
+     * @param startId the start id of the service that came with the intent
+     */
+    public void onHandleFetchIntent(@Nullable Intent intent, int startId) {
+        if (intent != null && VoicemailContract.ACTION_FETCH_VOICEMAIL.equals(intent.getAction())) {
+            queueFetchOfUri(intent, startId);
+        } else if (intent != null) {
+            queueFetches(intent, startId);
+        }
+        boolean idle;
+        synchronized (this) {
+            mLastStartId = startId;
+            idle = isIdle();
+        }
+        if (idle) {
+            mListener.onIdle(startId);
+        }
+    }
+
+    private void queueFetches(Intent intent, int startId) {
         logger.d("Received onHandleFetchIntent(" + intent + ")");
-        // Work out which Voicemail this intent corresponds to fetching.
-        String identifier = VoicemailIntentUtils.extractIdentifierFromIntent(intent);
-        if (identifier == null) {
+        // Work out which Voicemails this intent corresponds to fetching. A single intent is sent
+        // for all the voicemails inserted by a sync.
+        List<String> identifiers = VoicemailIntentUtils.extractIdentifiersFromIntent(intent);
+        if (identifiers.isEmpty()) {
             // We don't know what message we are supposed to be fetching. Can't do much.
             logger.e("Asked to fetch for intent without identifier: " + intent);
             return;
         }
+        // The identifiers are in priority order, so the first one fetched is the first voicemail
+        // the user can play.
+        long[] notifiedLengths = VoicemailIntentUtils.extractNotifiedLengthsFromIntent(intent);
+        boolean prefetch = notifiedLengths != null;
+        FetchRequest request = new FetchRequest(
+                VoicemailIntentUtils.extractRequestTimeFromIntent(intent), prefetch);
+        // Every ms counts until the user can play a new voicemail, or the one they asked to play.
+        queueFetches(identifiers, notifiedLengths, request, prefetch, startId);
+    }
+
+    /**
+     * Queues the fetch of the voicemail whose Uri is given by a
+     * {@link VoicemailContract#ACTION_FETCH_VOICEMAIL} intent, sent by a voicemail client when the
+     * user wants to play a voicemail that has no content yet.
+     * <p>
+     * The intent only gives the Uri, so the voicemail is looked up on the scheduler thread to find
+     * its source data. The controller is not idle until the look up is done.
+     */
+    private void queueFetchOfUri(final Intent intent, final int startId) {
+        logger.d("Received fetch request for " + intent.getData());
+        synchronized (this) {
+            ++mPendingLookUps;
+        }
+        mScheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Voicemail voicemail = intent.getData() == null ? null
+                            : mVoicemailProviderHelper.findVoicemailByUri(intent.getData());
+                    if (voicemail == null || !voicemail.hasSourceData()) {
+                        // Not one of ours, or no longer there.
+                        logger.w("No voicemail to fetch for " + intent.getData());
+                        return;
+                    }
+                    queueFetches(Collections.singletonList(voicemail.getSourceData()), null,
+                            new FetchRequest(
+                                    VoicemailIntentUtils.extractRequestTimeFromIntent(intent),
+                                    false),
+                            true, startId);
+                } finally {
+                    onLookUpCompleted();
+                }
+            }
+        });
+    }
 
-        // Fire off a fetch request. Then wait for the result.
-        // The wait is required as explained in the class documentation.
-        FetchAttachmentCallback callback = new FetchAttachmentCallback();
-        mVoicemailFetcherFactory.createVoicemailFetcher().fetchVoicemailPayload(
-                identifier, callback);
-        Voicemail voicemail = mVoicemailProviderHelper.findVoicemailBySourceData(identifier);
-        VoicemailPayload fetchedPayload = callback.waitForResult();
+    private void onLookUpCompleted() {
+        boolean idle;
+        int startId;
+        synchronized (this) {
+            --mPendingLookUps;
+            idle = isIdle();
+            startId = mLastStartId;
+        }
+        if (idle) {
+            mListener.onIdle(startId);
+        }
+    }
 
-        if (check(fetchedPayload != null, "Missing payload", voicemail)) {
-            // TODO: 3. Determine what we are going to do about duration.
-            // TODO: 1. What if we didn't find a voicemail with that id? Would it be null? Should we
-            // then throw an IOException?
-            try {
-                // Eclipse thinks that payload may be null at this location.
-                // Eclipse is wrong. But I don't mind this extra check, it's a no-op.
-                if (fetchedPayload != null) {
-                    mVoicemailProviderHelper.setVoicemailContent(voicemail.getUri(),
-                            fetchedPayload.getBytes(), fetchedPayload.getMimeType());
+    /**
+     * Queues the fetch of the voicemails with the given source data, merging the ones that are
+     * already queued or in flight onto the existing fetch.
+     *
+     * @param notifiedLengths the lengths given by the new message notifications, or null if the
+     *        fetch is not a prefetch
+     * @param startNow whether to start the fetch straight away rather than after the batch window
+     */
+    private void queueFetches(List<String> identifiers, @Nullable long[] notifiedLengths,
+            FetchRequest request, boolean startNow, int startId) {
+        boolean prefetch = notifiedLengths != null;
+        synchronized (this) {
+            // The start id of an intent whose voicemail had to be looked up first may be older.
+            mLastStartId = Math.max(mLastStartId, startId);
+            int merged = 0;
+            for (int i = 0; i < identifiers.size(); ++i) {
+                String identifier = identifiers.get(i);
+                PendingFetch fetch = mFetches.get(identifier);
+                if (fetch != null) {
+                    ++merged;
+                } else {
+                    fetch = new PendingFetch(identifier,
+                            prefetch && i < notifiedLengths.length ? notifiedLengths[i] : -1);
+                    mFetches.put(identifier, fetch);
+                    mQueue.add(fetch);
                 }
-            } catch (IOException e) {
-                logger.e("Couldn't write payload to content provider", e);
-                return;
+                fetch.addRequest(request);
+            }
+            logger.d(String.format("Queued %d fetches, merged %d, queue depth %d, %d in flight",
+                    identifiers.size() - merged, merged, mQueue.size(),
+                    mFetches.size() - mQueue.size()));
+            scheduleIfNeeded();
+        }
+        if (startNow) {
+            mScheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    startQueuedBatches();
+                }
+            });
+        }
+    }
+
+    /** Returns the number of voicemails waiting for a free slot. */
+    public synchronized int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /** Returns the number of voicemails whose fetch has started and not yet completed. */
+    public synchronized int getInFlightCount() {
+        return mFetches.size() - mQueue.size();
+    }
+
+    /**
+     * Returns true if there are no fetches left, either queued, in flight or being looked up, and
+     * no batch given up still holds its slot.
+     */
+    public synchronized boolean isIdle() {
+        return mFetches.isEmpty() && mInFlightBatches == 0 && mPendingLookUps == 0;
+    }
+
+    @GuardedBy("this")
+    private void scheduleIfNeeded() {
+        if (mBatchScheduled || mQueue.isEmpty() || mInFlightBatches >= mMaxConcurrentBatches) {
+            return;
+        }
+        mBatchScheduled = true;
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                startQueuedBatches();
+            }
+        }, BATCH_WINDOW_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void startQueuedBatches() {
+        // Look up the voicemails queued so far, to know which ones are to be fetched on their own.
+        List<PendingFetch> queued;
+        synchronized (this) {
+            queued = new ArrayList<PendingFetch>(mQueue);
+        }
+        for (PendingFetch fetch : queued) {
+            lookUpVoicemail(fetch);
+        }
+        List<List<PendingFetch>> batches = new ArrayList<List<PendingFetch>>();
+        synchronized (this) {
+            mBatchScheduled = false;
+            while (mInFlightBatches < mMaxConcurrentBatches && !mQueue.isEmpty()) {
+                List<PendingFetch> batch = new ArrayList<PendingFetch>();
+                batch.add(mQueue.remove());
+                if (!batch.get(0).isProgressive()) {
+                    while (batch.size() < MAX_VOICEMAILS_PER_BATCH && !mQueue.isEmpty()
+                            && !mQueue.peek().isProgressive()) {
+                        batch.add(mQueue.remove());
+                    }
+                }
+                batches.add(batch);
+                ++mInFlightBatches;
+            }
+        }
+        for (List<PendingFetch> batch : batches) {
+            startBatch(batch);
+        }
+    }
+
+    /**
+     * Finds the voicemail to write the payload of the fetch to, if not done already.
+     * <p>
+     * The length of the OMTP sync SMS, passed on by the notification or else stored as the duration
+     * of the voicemail, is all we know of the size of its content before fetching it.
+     */
+    private void lookUpVoicemail(PendingFetch fetch) {
+        if (fetch.mLookedUp) {
+            return;
+        }
+        Voicemail voicemail = mVoicemailProviderHelper.findVoicemailBySourceData(fetch.mIdentifier);
+        if (voicemail == null) {
+            logger.e("No voicemail to write payload to: " + fetch.mIdentifier);
+        } else {
+            long length = fetch.mNotifiedLength >= 0 ? fetch.mNotifiedLength
+                    : (voicemail.hasDuration() ? voicemail.getDuration() : 0);
+            fetch.mVoicemail = voicemail;
+            fetch.mLengthKnown = length > 0;
+            fetch.mExpectedBytes = DownloadPolicies.estimateContentBytes(length);
+        }
+        fetch.mLookedUp = true;
+    }
+
+    private void startBatch(List<PendingFetch> batch) {
+        Map<String, Voicemail> voicemails = new LinkedHashMap<String, Voicemail>();
+        long expectedBytes = 0;
+        for (PendingFetch fetch : batch) {
+            // Voicemails queued after the look up in startQueuedBatches() are looked up now.
+            lookUpVoicemail(fetch);
+            if (fetch.mVoicemail != null) {
+                voicemails.put(fetch.mIdentifier, fetch.mVoicemail);
+                expectedBytes += fetch.mExpectedBytes;
+            }
+        }
+        if (voicemails.isEmpty()) {
+            onBatchCompleted(batch);
+            return;
+        }
+        String account = getAccount();
+        long timeoutMillis = mThroughputEstimator.getTimeoutMillis(account, expectedBytes);
+        VoicemailFetcher fetcher = mVoicemailFetcherFactory.createVoicemailFetcher();
+        final FetchCallback<?> callback;
+        if (batch.get(0).isProgressive()) {
+            callback = new ProgressiveFetchCallback(batch, fetcher, account, expectedBytes,
+                    timeoutMillis);
+        } else {
+            callback = new BatchCompletedCallback(batch, voicemails, fetcher, account,
+                    expectedBytes, timeoutMillis);
+        }
+        callback.setTimeout(mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                callback.onTimeout();
             }
+        }, timeoutMillis, TimeUnit.MILLISECONDS));
+        logger.d(String.format("Starting fetch of %s, expecting %d bytes within %d ms",
+                voicemails.keySet(), expectedBytes, timeoutMillis));
+        try {
+            if (callback instanceof ProgressiveFetchCallback) {
+                ProgressiveFetchCallback progressiveCallback = (ProgressiveFetchCallback) callback;
+                fetcher.streamVoicemailPayload(batch.get(0).mIdentifier, progressiveCallback,
+                        progressiveCallback);
+            } else {
+                fetcher.fetchVoicemailPayloads(new ArrayList<String>(voicemails.keySet()),
+                        (BatchCompletedCallback) callback);
+            }
+        } catch (RuntimeException e) {
+            callback.onFailure(e);
         }
     }
 
-    private boolean check(boolean check, String message, Voicemail voicemail) {
-        if (!check) {
-            logger.e(message + ": " + voicemail);
+    /** Returns the key under which the throughput of the current account is estimated. */
+    private String getAccount() {
+        AccountDetails accountDetails = AccountDetails.fetchFromAccountStore(mAccountStore);
+        if (accountDetails == null) {
+            return "unknown";
+        }
+        return accountDetails.getServerAddress() + "/" + accountDetails.getUsername();
+    }
+
+    /**
+     * Removes the voicemails of a batch from the registry, unless they have been requested again
+     * since, so that a new request fetches them again.
+     */
+    private synchronized void removeFetches(List<PendingFetch> batch) {
+        for (PendingFetch fetch : batch) {
+            if (mFetches.get(fetch.mIdentifier) == fetch) {
+                mFetches.remove(fetch.mIdentifier);
+            }
+        }
+    }
+
+    /** Returns true if the voicemail with the given source data is queued or in flight. */
+    private synchronized boolean isQueuedOrInFlight(String identifier) {
+        return mFetches.containsKey(identifier);
+    }
+
+    /**
+     * Removes the voicemails of a batch whose session has ended, or has been given up for too long,
+     * from the registry, and frees its slot.
+     */
+    private void onBatchCompleted(List<PendingFetch> batch) {
+        boolean idle;
+        int startId;
+        synchronized (this) {
+            removeFetches(batch);
+            --mInFlightBatches;
+            idle = isIdle();
+            startId = mLastStartId;
+            scheduleIfNeeded();
+        }
+        if (idle) {
+            mListener.onIdle(startId);
+        }
+    }
+
+    /** Returns true if the content of the voicemail has been written to the content provider. */
+    private boolean writePayload(Voicemail voicemail, VoicemailPayload payload) {
+        // TODO: 3. Determine what we are going to do about duration.
+        try {
+            mVoicemailProviderHelper.setVoicemailContent(voicemail.getUri(),
+                    payload.getBytes(), payload.getMimeType());
+        } catch (IOException e) {
+            logger.e("Couldn't write payload to content provider", e);
             return false;
         }
         return true;
     }
 
+    /** The voicemails requested by the same fetch intent. */
+    private static final class FetchRequest {
+        private final long mRequestTime;
+        private final boolean mPrefetch;
+        private final AtomicBoolean mPlayableReported = new AtomicBoolean(false);
+
+        /**
+         * @param requestTime when the fetch was requested, or when the new message notification
+         *        was received for a prefetch
+         */
+        public FetchRequest(long requestTime, boolean prefetch) {
+            mRequestTime = requestTime;
+            mPrefetch = prefetch;
+        }
+
+        /** Reports the time to the first playable voicemail of the request, only once. */
+        public void onVoicemailPlayable() {
+            if (mRequestTime >= 0 && !mPlayableReported.getAndSet(true)) {
+                logger.i(String.format(mPrefetch
+                        ? "Time from notification to playable voicemail: %d ms"
+                        : "Time to first playable voicemail: %d ms",
+                        SystemClock.elapsedRealtime() - mRequestTime));
+            }
+        }
+    }
+
+    /** A voicemail to fetch, and the requests merged onto its fetch. */
+    private static final class PendingFetch {
+        private final String mIdentifier;
+        /** The length given by the new message notification, or -1 if not a prefetch. */
+        private final long mNotifiedLength;
+        @GuardedBy("this") private final List<FetchRequest> mRequests =
+                new ArrayList<FetchRequest>();
+        /** The fields below are only accessed on the scheduler thread, and by the fetch. */
+        private volatile boolean mLookedUp;
+        private volatile Voicemail mVoicemail;
+        private volatile boolean mLengthKnown;
+        private volatile long mExpectedBytes;
+
+        public PendingFetch(String identifier, long notifiedLength) {
+            mIdentifier = identifier;
+            mNotifiedLength = notifiedLength;
+        }
+
+        /** Returns true if the voicemail is known to be long enough to be fetched progressively. */
+        public boolean isProgressive() {
+            // The size estimated for voicemails of unknown length is not to be relied on.
+            return mVoicemail != null && mLengthKnown && mExpectedBytes >= PROGRESSIVE_MIN_BYTES;
+        }
+
+        public synchronized void addRequest(FetchRequest request) {
+            mRequests.add(request);
+        }
+
+        public synchronized void onVoicemailPlayable() {
+            for (FetchRequest request : mRequests) {
+                request.onVoicemailPlayable();
+            }
+        }
+    }
+
     /**
-     * Helper class used as a callback that also allows a thread to wait for the result.
+     * Gives up a batch that has not completed in time and closes its session, and frees its slot
+     * once the session has ended, or after {@link #SESSION_CLOSE_GRACE_MS} at the latest. Only the
+     * first of the result and the timeout is taken into account.
+     * <p>
+     * A single sample is reported to the throughput estimator for each batch. For a batch that
+     * timed out, it is only reported once the session has ended, so that a result arriving after
+     * the timeout is reported with its real duration rather than as well as the timeout.
      */
-    private class FetchAttachmentCallback implements Callback<VoicemailPayload> {
-        private final CountDownLatch mIsComplete = new CountDownLatch(1);
-        private volatile VoicemailPayload mResult;
+    private abstract class FetchCallback<T> implements Callback<T> {
+        protected final List<PendingFetch> mBatch;
+        private final VoicemailFetcher mFetcher;
+        private final String mAccount;
+        private final long mExpectedBytes;
+        private final long mTimeoutMillis;
+        private final long mStartTime = SystemClock.elapsedRealtime();
+        private final AtomicBoolean mCompleted = new AtomicBoolean(false);
+        private final AtomicBoolean mSlotReleased = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> mTimeout;
+        private volatile boolean mTimedOut;
+
+        /**
+         * @param fetcher the fetcher running the session of the batch, cancelled on timeout
+         */
+        public FetchCallback(List<PendingFetch> batch, VoicemailFetcher fetcher, String account,
+                long expectedBytes, long timeoutMillis) {
+            mBatch = batch;
+            mFetcher = fetcher;
+            mAccount = account;
+            mExpectedBytes = expectedBytes;
+            mTimeoutMillis = timeoutMillis;
+        }
+
+        public void setTimeout(ScheduledFuture<?> timeout) {
+            mTimeout = timeout;
+        }
+
+        public void onTimeout() {
+            if (!complete()) {
+                return;
+            }
+            logger.e(String.format("Fetch of %d bytes timed out after %d ms", mExpectedBytes,
+                    mTimeoutMillis));
+            mTimedOut = true;
+            onGivenUp();
+            // The slot is only freed once the session has ended, see releaseSlot().
+            removeFetches(mBatch);
+            mFetcher.cancel();
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mSlotReleased.get()) {
+                        logger.w("Session of a fetch given up has not ended, freeing its slot");
+                        releaseSlot();
+                    }
+                }
+            }, SESSION_CLOSE_GRACE_MS, TimeUnit.MILLISECONDS);
+        }
 
         @Override
         public void onFailure(Exception error) {
-            mIsComplete.countDown();
+            if (complete()) {
+                logger.e("Failed to fetch payloads of " + mBatch.size() + " voicemails", error);
+                onGivenUp();
+            } else if (mTimedOut) {
+                // All that is known is that it would have taken longer than the timeout.
+                mThroughputEstimator.recordTimeout(mAccount, mExpectedBytes, mTimeoutMillis);
+            }
+            releaseSlot();
         }
 
-        @Override
-        public void onSuccess(VoicemailPayload result) {
-            mResult = result;
-            mIsComplete.countDown();
+        /** Frees the slot of the batch, only the first time it is called. */
+        protected void releaseSlot() {
+            if (!mSlotReleased.getAndSet(true)) {
+                onBatchCompleted(mBatch);
+            }
         }
 
         /**
-         * Waits for the asynchronous result of the callback to complete.
-         * <p>
-         * Returns the voicemail and the payload that we retrieved. Returns null if the thread was
-         * interrupted, if there was an exception of any sort fetching the data from the server, or
-         * if the timeout expired (i.e. the fetch took too long).
+         * Reports the duration of the download to the throughput estimator, as a timeout if it
+         * completed after its timeout, and returns true if the result is the first to complete,
+         * i.e., if it should be taken into account.
          */
-        @Nullable
-        private VoicemailPayload waitForResult() {
+        protected boolean onDownloaded(long bytes) {
+            long elapsedMillis = SystemClock.elapsedRealtime() - mStartTime;
+            if (!complete()) {
+                logger.w(String.format("Fetch of %d bytes completed after its timeout of %d ms",
+                        bytes, mTimeoutMillis));
+                mThroughputEstimator.recordTimeout(mAccount, bytes, elapsedMillis);
+                return false;
+            }
+            mThroughputEstimator.recordDownload(mAccount, bytes, elapsedMillis);
+            return true;
+        }
+
+        /**
+         * Called when the fetch has failed or timed out, before its voicemails are removed from
+         * the registry.
+         */
+        protected void onGivenUp() {
+        }
+
+        /** Returns true the first time it is called. */
+        private boolean complete() {
+            if (mCompleted.getAndSet(true)) {
+                return false;
+            }
+            ScheduledFuture<?> timeout = mTimeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            return true;
+        }
+    }
+
+    /** Writes the payloads of a fetched batch to the content provider. */
+    private class BatchCompletedCallback extends FetchCallback<Map<String, VoicemailPayload>> {
+        private final Map<String, Voicemail> mVoicemails;
+
+        /**
+         * @param batch the voicemails of the batch
+         * @param voicemails the voicemails being fetched, keyed by source data
+         */
+        public BatchCompletedCallback(List<PendingFetch> batch, Map<String, Voicemail> voicemails,
+                VoicemailFetcher fetcher, String account, long expectedBytes,
+                long timeoutMillis) {
+            super(batch, fetcher, account, expectedBytes, timeoutMillis);
+            mVoicemails = voicemails;
+        }
+
+        @Override
+        public void onSuccess(Map<String, VoicemailPayload> result) {
+            long bytes = 0;
+            for (VoicemailPayload payload : result.values()) {
+                bytes += payload.getBytes().length;
+            }
+            // A result arriving after the timeout is still written, except for the voicemails
+            // requested again since, which the new fetch writes.
+            boolean late = !onDownloaded(bytes);
             try {
-                mIsComplete.await(TIME_TO_WAIT_FOR_RESULT_MS, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                // Restore interrupt status and fall through.
-                Thread.currentThread().interrupt();
+                for (PendingFetch fetch : mBatch) {
+                    Voicemail voicemail = mVoicemails.get(fetch.mIdentifier);
+                    if (voicemail == null) {
+                        // Not fetched, there was nothing to write its payload to.
+                        continue;
+                    }
+                    if (late && isQueuedOrInFlight(fetch.mIdentifier)) {
+                        continue;
+                    }
+                    VoicemailPayload payload = result.get(fetch.mIdentifier);
+                    if (payload == null) {
+                        logger.w("No payload fetched for " + fetch.mIdentifier);
+                    } else if (writePayload(voicemail, payload)) {
+                        fetch.onVoicemailPlayable();
+                    }
+                }
+            } finally {
+                releaseSlot();
             }
-            return mResult;
+        }
+    }
+
+    /**
+     * Writes the payload of a single voicemail to the content provider as it is decoded, so that
+     * it can be played as soon as its first bytes have been written.
+     */
+    private class ProgressiveFetchCallback extends FetchCallback<Long>
+            implements VoicemailPayloadSink, VoicemailContentOutputStream.Listener {
+        private final PendingFetch mFetch;
+        @GuardedBy("this") private VoicemailContentOutputStream mContent;
+        @GuardedBy("this") private boolean mGivenUp;
+
+        public ProgressiveFetchCallback(List<PendingFetch> batch, VoicemailFetcher fetcher,
+                String account, long expectedBytes, long timeoutMillis) {
+            super(batch, fetcher, account, expectedBytes, timeoutMillis);
+            mFetch = batch.get(0);
+        }
+
+        @Override
+        public synchronized OutputStream open(String mimeType) throws IOException {
+            if (mGivenUp) {
+                throw new IOException("Fetch of " + mFetch.mIdentifier + " given up");
+            }
+            mContent = mVoicemailProviderHelper.openVoicemailContent(mFetch.mVoicemail.getUri(),
+                    mimeType, this);
+            return mContent;
+        }
+
+        @Override
+        public void onReadablePrefixChanged(Uri voicemailUri, long length) {
+            mContentProgressTracker.onReadablePrefixChanged(voicemailUri, length);
+        }
+
+        @Override
+        public void onContentFinished(Uri voicemailUri, boolean complete) {
+            mContentProgressTracker.onContentFinished(voicemailUri, complete);
+            // Only then is the has content flag set, which is what most players go by.
+            if (complete) {
+                mFetch.onVoicemailPlayable();
+            }
+        }
+
+        @Override
+        public void onSuccess(Long result) {
+            if (!onDownloaded(result)) {
+                // The content was aborted when the fetch was given up, there is nothing to write.
+                releaseSlot();
+                return;
+            }
+            try {
+                VoicemailContentOutputStream content = getContent();
+                if (content == null) {
+                    logger.w("No payload fetched for " + mFetch.mIdentifier);
+                } else {
+                    content.close();
+                }
+            } catch (IOException e) {
+                logger.e("Couldn't write payload to content provider", e);
+            } finally {
+                releaseSlot();
+            }
+        }
+
+        @Override
+        protected synchronized void onGivenUp() {
+            // Stops the download if still in progress, as writing to the content will now fail.
+            mGivenUp = true;
+            if (mContent != null) {
+                mContent.abort();
+            }
+        }
+
+        private synchronized VoicemailContentOutputStream getContent() {
+            return mContent;
         }
     }
 }
@@ -15,17 +15,23 @@
  */
 package com.google.android.voicemail.example.service.fetch;
 
+import com.google.android.voicemail.example.core.VoicemailIntentUtils;
 import com.google.android.voicemail.example.dependency.DependencyResolver;
 import com.google.android.voicemail.example.dependency.DependencyResolverImpl;
+import com.google.android.voicemail.example.sync.OmtpVvmStore;
 
-import android.app.IntentService;
+import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.os.IBinder;
 
+import com.example.android.voicemail.common.core.Voicemail;
 import com.example.android.voicemail.common.core.VoicemailProviderHelper;
 import com.example.android.voicemail.common.core.VoicemailProviderHelpers;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -35,41 +41,57 @@ import javax.annotation.concurrent.ThreadSafe;
  * This service will be triggered by a call to {@link #startService(Intent)} which will have been
  * made by the BroadcastReceiver responsible for handling the fetch intents.
  * <p>
- * This class contains no logic, but just delegates to the {@link OmtpFetchController}.
- * <p>
- * This class extends the {@link IntentService}, which makes the following guaranatees:
- * <ul>
- * <li>requests are handled on a single worker thread</li>
- * <li>only one request will be processed at a time</li>
- * </ul>
- * <p>
- * Unfortunately the {@link IntentService} does <b>not</b> guarantee that this will be the same
- * thread each time, and indeed if one intent is completed before another is sent, then the service
- * will be stopped and restarted, and a different thread will be used. That it guarantees sequential
- * execution of the {@link #onHandleIntent(Intent)} method is great, but that it doesn't guarantee
- * memory visibility between two different calls to {@link #onHandleIntent(Intent)} is annoying. In
- * practice I can see from the implementation that a MessageQueue is used, which contains enough
- * synchronization to guarantee visibility also, but it seems brave to rely on this.
- * <p>
- * I therefore make {@link #onHandleIntent(Intent)} synchronized, which will serve to guarantee
- * memory visibility between successive calls, and coincidentally provides thread safety.
+ * This class contains no logic, but just delegates to the {@link OmtpFetchController}. The
+ * controller fetches asynchronously, so intents are handed to it on the main thread, and the
+ * service stops itself once the controller reports that it is idle. Stopping uses the start id
+ * that the controller recorded with the last intent it queued, so that the service is not stopped
+ * while an intent that arrived in the meantime is being handled.
  */
 @ThreadSafe
-public class OmtpFetchService extends IntentService {
-    private static final String WORKER_THREAD_NAME = "OmtpFetchServiceWorkerThread";
-    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(0);
+public class OmtpFetchService extends Service {
+    /** How many batches of voicemails are fetched at the same time, each over its own session. */
+    private static final int MAX_CONCURRENT_BATCHES = 2;
 
+    /** Only accessed on the main thread. */
     private OmtpFetchController mOmtpFetchController;
+    private ScheduledExecutorService mScheduler;
+
+    /**
+     * Creates an intent that starts this service directly, without going through the fetch
+     * broadcast, to prefetch voicemails that new message notifications have just announced.
+     *
+     * @param voicemails the voicemails, with the message ids and the lengths given by the
+     *        notifications, in the order in which they should be fetched
+     * @param notificationTime when the first notification was received, as given by
+     *        {@link android.os.SystemClock#elapsedRealtime()}
+     */
+    public static Intent createPrefetchIntent(Context context, List<Voicemail> voicemails,
+            long notificationTime) {
+        Intent intent = new Intent(OmtpVvmStore.FETCH_INTENT, null, context,
+                OmtpFetchService.class);
+        VoicemailIntentUtils.storeIdentifiersInIntent(intent, voicemails);
+        VoicemailIntentUtils.storeRequestTimeInIntent(intent, notificationTime);
+        VoicemailIntentUtils.storeNotifiedLengthsInIntent(intent, voicemails);
+        return intent;
+    }
 
-    public OmtpFetchService() {
-        super(WORKER_THREAD_NAME + "_" + THREAD_NUMBER.incrementAndGet());
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        getOmtpFetchController().onHandleFetchIntent(intent, startId);
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
     }
 
     @Override
-    protected synchronized void onHandleIntent(Intent intent) {
-        if (intent != null) {
-            getOmtpFetchController().onHandleFetchIntent(intent);
+    public void onDestroy() {
+        if (mScheduler != null) {
+            mScheduler.shutdownNow();
         }
+        super.onDestroy();
     }
 
     /** Lazily initializes the controller. */
@@ -80,8 +102,16 @@ public class OmtpFetchService extends IntentService {
             VoicemailProviderHelper voicemailProviderHelper =
                     VoicemailProviderHelpers
                             .createPackageScopedVoicemailProvider(applicationContext);
+            mScheduler = Executors.newSingleThreadScheduledExecutor();
             mOmtpFetchController = new OmtpFetchController(resolver.getVoicemailFetcherFactory(),
-                    voicemailProviderHelper);
+                    voicemailProviderHelper, resolver.getAccountsStore(),
+                    resolver.getFetchThroughputEstimator(), resolver.getContentProgressTracker(),
+                    mScheduler, MAX_CONCURRENT_BATCHES, new OmtpFetchController.Listener() {
+                        @Override
+                        public void onIdle(int startId) {
+                            stopSelf(startId);
+                        }
+                    });
         }
         return mOmtpFetchController;
     }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sms;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The concatenation information element of the user data header of an SMS, telling which segment
+ * of a concatenated message the SMS is.
+ * <p>
+ * The framework does not expose user data headers, so they are read from the raw PDU, which must
+ * be a 3GPP SMS-DELIVER PDU as found in the SMS received broadcast, starting with the SMSC address.
+ */
+@Immutable
+/*package*/ class ConcatenationHeader {
+    /** The information element of a concatenated message with an 8-bit reference number. */
+    private static final int IEI_CONCATENATED_8_BIT = 0x00;
+    /** The information element of a concatenated message with a 16-bit reference number. */
+    private static final int IEI_CONCATENATED_16_BIT = 0x08;
+
+    private static final int MESSAGE_TYPE_MASK = 0x03;
+    private static final int MESSAGE_TYPE_DELIVER = 0x00;
+    private static final int USER_DATA_HEADER_INDICATOR = 0x40;
+    /** The length of the protocol identifier, data coding scheme and service centre timestamp. */
+    private static final int PID_DCS_SCTS_LENGTH = 9;
+
+    private final int mReference;
+    private final int mSegmentCount;
+    private final int mSequenceNumber;
+
+    private ConcatenationHeader(int reference, int segmentCount, int sequenceNumber) {
+        mReference = reference;
+        mSegmentCount = segmentCount;
+        mSequenceNumber = sequenceNumber;
+    }
+
+    /** The reference number shared by all the segments of the message. */
+    public int getReference() {
+        return mReference;
+    }
+
+    /** The number of segments of the message. */
+    public int getSegmentCount() {
+        return mSegmentCount;
+    }
+
+    /** The position of this segment in the message, starting at 1. */
+    public int getSequenceNumber() {
+        return mSequenceNumber;
+    }
+
+    /**
+     * Reads the concatenation header of an SMS.
+     *
+     * @return the header, or null if the SMS is not a segment of a concatenated message, or if the
+     *         PDU could not be read
+     */
+    @Nullable
+    public static ConcatenationHeader fromPdu(byte[] pdu) {
+        try {
+            int i = 1 + (pdu[0] & 0xff);
+            int firstOctet = pdu[i++] & 0xff;
+            if ((firstOctet & MESSAGE_TYPE_MASK) != MESSAGE_TYPE_DELIVER
+                    || (firstOctet & USER_DATA_HEADER_INDICATOR) == 0) {
+                return null;
+            }
+            // The originating address length is a number of digits, two per octet, not counting
+            // the type of address.
+            int addressDigits = pdu[i++] & 0xff;
+            i += 1 + (addressDigits + 1) / 2;
+            i += PID_DCS_SCTS_LENGTH;
+            // Skip the user data length.
+            i++;
+            int headerEnd = i + 1 + (pdu[i] & 0xff);
+            i++;
+            while (i + 1 < headerEnd) {
+                int id = pdu[i] & 0xff;
+                int length = pdu[i + 1] & 0xff;
+                int data = i + 2;
+                if (id == IEI_CONCATENATED_8_BIT && length == 3) {
+                    return create(pdu[data] & 0xff, pdu[data + 1] & 0xff, pdu[data + 2] & 0xff);
+                } else if (id == IEI_CONCATENATED_16_BIT && length == 4) {
+                    return create(((pdu[data] & 0xff) << 8) | (pdu[data + 1] & 0xff),
+                            pdu[data + 2] & 0xff, pdu[data + 3] & 0xff);
+                }
+                i = data + length;
+            }
+            return null;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Truncated, or not in the 3GPP format.
+            return null;
+        }
+    }
+
+    @Nullable
+    private static ConcatenationHeader create(int reference, int segmentCount,
+            int sequenceNumber) {
+        // Invalid headers are to be ignored, as per 3GPP TS 23.040.
+        if (segmentCount == 0 || sequenceNumber == 0 || sequenceNumber > segmentCount) {
+            return null;
+        }
+        return new ConcatenationHeader(reference, segmentCount, sequenceNumber);
+    }
+
+    @Override
+    public String toString() {
+        return "ConcatenationHeader [mReference=" + mReference
+                + ", mSegmentCount=" + mSegmentCount
+                + ", mSequenceNumber=" + mSequenceNumber + "]";
+    }
+}
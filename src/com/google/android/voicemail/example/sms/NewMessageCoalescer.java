@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sms;
+
+import com.google.android.voicemail.example.callbacks.Callback;
+import com.google.android.voicemail.example.service.fetch.OmtpFetchService;
+import com.google.android.voicemail.example.sync.VvmStore;
+import com.google.android.voicemail.example.sync.VvmStoreActions;
+
+import android.content.Context;
+
+import com.example.android.voicemail.common.core.Voicemail;
+import com.example.android.voicemail.common.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Groups the new voicemails announced by NEW_MESSAGE sync SMS received close together, so that
+ * they are inserted by a single batch of actions and prefetched by a single fetch request.
+ * <p>
+ * The first new voicemail starts an aggregation window, and all the voicemails announced until
+ * the window expires are inserted together. Once inserted, their content is prefetched by starting
+ * the {@link OmtpFetchService} directly, rather than waiting for the fetch broadcast that a
+ * resolve would send. The time of the first notification is passed on, so that the delay until
+ * the voicemail can be played is measured end to end.
+ * <p>
+ * A notification for a message id that is already waiting, or that was recently inserted, is a
+ * retransmission, e.g. by a server replaying its SMS after an outage, and is dropped. Voicemails
+ * that are already in the local store are also dropped by the store itself.
+ * <p>
+ * There should be a single instance of this class, shared by all the SMS handlers.
+ */
+@ThreadSafe
+public class NewMessageCoalescer {
+    private static final Logger logger = Logger.getLogger(NewMessageCoalescer.class);
+
+    /** How many of the most recently inserted message ids are remembered to drop duplicates. */
+    private static final int RECENT_IDS_CAPACITY = 64;
+
+    private final Context mContext;
+    /** Vvm store insert message into. This should be an instance of the local store. */
+    private final VvmStore mLocalVvmStore;
+    private final ScheduledExecutorService mScheduler;
+    private final long mWindowMillis;
+
+    /** The voicemails to insert at the end of the window, in the order they were announced. */
+    @GuardedBy("this") private final List<Voicemail> mPendingVoicemails =
+            new ArrayList<Voicemail>();
+    /** The message ids of the pending voicemails. */
+    @GuardedBy("this") private final Set<String> mPendingIds = new HashSet<String>();
+    /** The message ids of the voicemails inserted recently, oldest first. */
+    @GuardedBy("this") private final Set<String> mRecentIds = new LinkedHashSet<String>();
+    /** When the first notification of the pending voicemails was received. */
+    @GuardedBy("this") private long mFirstNotificationTime;
+    /** Whether the pending voicemails have been scheduled to be inserted. */
+    @GuardedBy("this") private boolean mFlushScheduled;
+    @GuardedBy("this") private int mDuplicateCount;
+
+    /**
+     * @param scheduler used to insert the voicemails once the window has expired
+     * @param windowMillis how long to wait for more new voicemails before inserting them
+     */
+    public NewMessageCoalescer(Context context, VvmStore localVvmStore,
+            ScheduledExecutorService scheduler, long windowMillis) {
+        mContext = context;
+        mLocalVvmStore = localVvmStore;
+        mScheduler = scheduler;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Adds a new voicemail to insert and prefetch, unless it is a duplicate.
+     *
+     * @param voicemail the voicemail, with the message id and the length given by the notification
+     * @param notificationTime when the notification was received, as given by
+     *        {@link android.os.SystemClock#elapsedRealtime()}
+     */
+    public synchronized void add(Voicemail voicemail, long notificationTime) {
+        String id = voicemail.getSourceData();
+        if (id != null && (mPendingIds.contains(id) || mRecentIds.contains(id))) {
+            mDuplicateCount++;
+            logger.d(String.format("Dropped duplicate notification of %s, %d so far.", id,
+                    mDuplicateCount));
+            return;
+        }
+        if (mPendingVoicemails.isEmpty()) {
+            mFirstNotificationTime = notificationTime;
+        }
+        mPendingVoicemails.add(voicemail);
+        if (id != null) {
+            mPendingIds.add(id);
+        }
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, mWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Returns the number of notifications dropped as duplicates. */
+    public synchronized int getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    /** Inserts the pending voicemails, then prefetches their content. */
+    private void flush() {
+        final List<Voicemail> voicemails;
+        final long notificationTime;
+        synchronized (this) {
+            mFlushScheduled = false;
+            voicemails = new ArrayList<Voicemail>(mPendingVoicemails);
+            notificationTime = mFirstNotificationTime;
+            mPendingVoicemails.clear();
+            for (Voicemail voicemail : voicemails) {
+                if (voicemail.getSourceData() != null) {
+                    addRecentId(voicemail.getSourceData());
+                }
+            }
+            mPendingIds.clear();
+        }
+        logger.d(String.format("Inserting %d new voicemails.", voicemails.size()));
+        List<VvmStore.Action> actions = new ArrayList<VvmStore.Action>(voicemails.size());
+        for (Voicemail voicemail : voicemails) {
+            actions.add(VvmStoreActions.insert(voicemail));
+        }
+        // TODO: We might want to acquire a wake lock around this operation.
+        mLocalVvmStore.performActions(actions, new Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                // The server has just told us about the messages, so their ids and lengths are
+                // used as they are, without asking the server whether they exist.
+                mContext.startService(OmtpFetchService.createPrefetchIntent(mContext, voicemails,
+                        notificationTime));
+            }
+
+            @Override
+            public void onFailure(Exception error) {
+                // The content will be fetched by the next resolve instead.
+                logger.e(String.format("Failed to insert %d new voicemails", voicemails.size()),
+                        error);
+                forgetRecentIds(voicemails);
+            }
+        });
+    }
+
+    @GuardedBy("this")
+    private void addRecentId(String id) {
+        if (mRecentIds.size() >= RECENT_IDS_CAPACITY) {
+            Iterator<String> oldest = mRecentIds.iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        mRecentIds.add(id);
+    }
+
+    /** Lets a retransmission of voicemails that failed to be inserted through. */
+    private synchronized void forgetRecentIds(List<Voicemail> voicemails) {
+        for (Voicemail voicemail : voicemails) {
+            mRecentIds.remove(voicemail.getSourceData());
+        }
+    }
+}
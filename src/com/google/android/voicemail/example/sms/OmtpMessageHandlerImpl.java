@@ -18,11 +18,9 @@ package com.google.android.voicemail.example.sms;
 import com.google.android.voicemail.example.callbacks.Callbacks;
 import com.google.android.voicemail.example.storage.AccountInfo;
 import com.google.android.voicemail.example.sync.SyncResolver;
-import com.google.android.voicemail.example.sync.VvmStore;
-import com.google.android.voicemail.example.sync.VvmStore.Action;
-import com.google.android.voicemail.example.sync.VvmStoreActions;
 import com.google.android.voicemail.example.util.AccountStoreWrapper;
 
+import android.os.SystemClock;
 import android.telephony.SmsMessage;
 
 import com.example.android.voicemail.common.core.Voicemail;
@@ -39,6 +37,12 @@ import javax.annotation.concurrent.ThreadSafe;
 /**
  * Omtp SMS handler. Handles SYNC and STATUS messages and takes appropriate action.
  * <p>
+ * New messages are handed to a shared {@link NewMessageCoalescer}, which inserts the ones
+ * announced close together as a batch, and then prefetches their content.
+ * <p>
+ * The segments of a concatenated SMS can be delivered in separate broadcasts, so they are handed
+ * to a shared {@link SmsReassemblyBuffer}, and a message is only parsed once complete.
+ * <p>
  * This implementation is stateless.
  */
 @ThreadSafe
@@ -48,47 +52,78 @@ public class OmtpMessageHandlerImpl implements OmtpMessageHandler, OmtpMessage.V
     private final SmsParser mSmsParser;
     private final AccountStoreWrapper mAccountStore;
     private final SyncResolver mSyncResolver;
-    /** Vvm store insert message into. This should be an instance of the local store. */
-    private final VvmStore mLocalVvmStore;
+    private final NewMessageCoalescer mNewMessageCoalescer;
+    private final SmsReassemblyBuffer mReassemblyBuffer;
 
-    public OmtpMessageHandlerImpl(VvmStore localVvmStore, AccountStoreWrapper accountStore,
-            SyncResolver syncResolver, SmsParser smsParser) {
-        mLocalVvmStore = localVvmStore;
+    public OmtpMessageHandlerImpl(NewMessageCoalescer newMessageCoalescer,
+            AccountStoreWrapper accountStore, SyncResolver syncResolver, SmsParser smsParser,
+            SmsReassemblyBuffer reassemblyBuffer) {
+        mNewMessageCoalescer = newMessageCoalescer;
         mAccountStore = accountStore;
         mSyncResolver = syncResolver;
         mSmsParser = smsParser;
+        mReassemblyBuffer = reassemblyBuffer;
     }
 
     @Override
     public void process(Object[] omtpSmsPdus) {
         // Notes:
-        // 1) OMTP message could be split into multiple messages. Merge them together to build the
-        // full OMTP text.
+        // 1) OMTP message could be split into multiple messages. Segments with a concatenation
+        // header are reassembled by the buffer, possibly across broadcasts. Any others are merged
+        // together, in order, to build the full OMTP text.
         // 2) The omtpMessage is either included in the userData or in the messageBody. This
         // behavior is
         // likely to vary across different VVM servers. Make sure we can handle both.
         logger.d("Num msgs:" + omtpSmsPdus.length);
 
+        List<SmsReassemblyBuffer.Message> messages = new ArrayList<SmsReassemblyBuffer.Message>();
         StringBuilder userData = new StringBuilder();
         StringBuilder messageBody = new StringBuilder();
+        boolean hasUnsegmentedPdus = false;
         for (int i = 0; i < omtpSmsPdus.length; i++) {
-            SmsMessage sms = SmsMessage.createFromPdu((byte[]) omtpSmsPdus[i]);
+            byte[] pdu = (byte[]) omtpSmsPdus[i];
+            SmsMessage sms = SmsMessage.createFromPdu(pdu);
             // TODO: Disable detailed logging after SMS receiver is well tested.
             logMessageDetails(sms);
-            messageBody.append(sms.getMessageBody());
-            userData.append(extractUserData(sms));
+            ConcatenationHeader header = ConcatenationHeader.fromPdu(pdu);
+            if (header == null) {
+                messageBody.append(sms.getMessageBody());
+                userData.append(extractUserData(sms));
+                hasUnsegmentedPdus = true;
+            } else {
+                SmsReassemblyBuffer.Message message = mReassemblyBuffer.addSegment(
+                        sms.getOriginatingAddress(), header, extractUserData(sms),
+                        sms.getMessageBody());
+                if (message != null) {
+                    messages.add(message);
+                }
+            }
+        }
+        if (hasUnsegmentedPdus) {
+            messages.add(new SmsReassemblyBuffer.Message(userData.toString(),
+                    messageBody.toString()));
         }
 
+        for (SmsReassemblyBuffer.Message message : messages) {
+            parseAndVisit(message);
+        }
+    }
+
+    private void parseAndVisit(SmsReassemblyBuffer.Message message) {
         try {
-            mSmsParser.parse(userData.toString()).visit(this);
+            mSmsParser.parse(message.getUserData()).visit(this);
         } catch (OmtpParseException exceptionUserData) {
             // Failed to parse the user data. Lets try with message body.
+            mReassemblyBuffer.recordParseRetry();
             try {
-                mSmsParser.parse(messageBody.toString()).visit(this);
+                mSmsParser.parse(message.getMessageBody()).visit(this);
             } catch (OmtpParseException exceptionMsgBody) {
                 // Failed to parse both. Give up!
-                logger.e("Failed to parse userData: " + userData, exceptionUserData);
-                logger.e("Failed to parse messageBody: " + messageBody, exceptionMsgBody);
+                mReassemblyBuffer.recordParseFailure();
+                logger.e("Failed to parse userData: " + message.getUserData(),
+                        exceptionUserData);
+                logger.e("Failed to parse messageBody: " + message.getMessageBody(),
+                        exceptionMsgBody);
             }
         }
     }
@@ -129,6 +164,7 @@ public class OmtpMessageHandlerImpl implements OmtpMessageHandler, OmtpMessage.V
     }
 
     private void processNewMessage(SyncMessage syncMessage) {
+        long notificationTime = SystemClock.elapsedRealtime();
         String msgId = syncMessage.getId();
         String sender = syncMessage.getSender();
         long time = syncMessage.getTimestampMillis();
@@ -140,14 +176,7 @@ public class OmtpMessageHandlerImpl implements OmtpMessageHandler, OmtpMessage.V
                 .setSourcePackage(sourcePackageName)
                 .setSourceData(msgId)
                 .build();
-        sendInsertRequest(voicemail);
-    }
-
-    private void sendInsertRequest(Voicemail voicemail) {
-        List<Action> actions = new ArrayList<VvmStore.Action>();
-        actions.add(VvmStoreActions.insert(voicemail));
-        // TODO: We might want to acquire a wake lock around this operation.
-        mLocalVvmStore.performActions(actions, Callbacks.<Void>emptyCallback());
+        mNewMessageCoalescer.add(voicemail, notificationTime);
     }
 
     @Override
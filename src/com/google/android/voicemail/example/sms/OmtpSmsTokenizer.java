@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sms;
+
+import com.google.android.voicemail.example.spec.Omtp;
+
+/**
+ * Splits the body of an OMTP SMS into the values of its fields, in a single pass and without
+ * regular expressions.
+ * <p>
+ * The body is a list of key/value pairs, separated by {@link Omtp#SMS_FIELD_SEPARATOR}, each key
+ * being separated from its value by {@link Omtp#SMS_KEY_VALUE_SEPARATOR}. Keys and values are
+ * trimmed of surrounding whitespace. Only the values of known fields are copied out of the body;
+ * pairs with any other key are skipped.
+ */
+/*package*/ class OmtpSmsTokenizer {
+    private static final char FIELD_SEPARATOR = Omtp.SMS_FIELD_SEPARATOR.charAt(0);
+    private static final char KEY_VALUE_SEPARATOR = Omtp.SMS_KEY_VALUE_SEPARATOR.charAt(0);
+
+    private OmtpSmsTokenizer() {
+    }
+
+    /**
+     * Extracts the values of the given fields from an SMS body.
+     * <p>
+     * If a key appears more than once, its last value is kept.
+     *
+     * @param smsBody the SMS body, including its prefix
+     * @param start the index at which the key/value pairs start, i.e., the length of the prefix
+     * @param fields all the fields of the message type, as returned by the enum's values()
+     * @return the values found, indexed by the ordinals of their fields, null for absent fields
+     * @throws OmtpParseException if a non-empty entry is not a single key/value pair
+     */
+    public static <F extends Enum<F> & Omtp.Field> String[] tokenize(String smsBody, int start,
+            F[] fields) throws OmtpParseException {
+        String[] values = new String[fields.length];
+        int length = smsBody.length();
+        int entryStart = start;
+        // Trailing empty entries are accepted, as String.split() used to drop them.
+        while (entryStart < length && !isBlankUntilEnd(smsBody, entryStart)) {
+            int separator = -1;
+            int entryEnd = entryStart;
+            for (; entryEnd < length; entryEnd++) {
+                char c = smsBody.charAt(entryEnd);
+                if (c == FIELD_SEPARATOR) {
+                    break;
+                } else if (c == KEY_VALUE_SEPARATOR) {
+                    if (separator >= 0) {
+                        throw entryException(smsBody, entryStart, entryEnd);
+                    }
+                    separator = entryEnd;
+                }
+            }
+            if (separator < 0) {
+                throw entryException(smsBody, entryStart, entryEnd);
+            }
+            int index = indexOfKey(smsBody, trimStart(smsBody, entryStart, separator),
+                    trimEnd(smsBody, entryStart, separator), fields);
+            if (index >= 0) {
+                int valueStart = trimStart(smsBody, separator + 1, entryEnd);
+                values[index] = smsBody.substring(valueStart,
+                        trimEnd(smsBody, valueStart, entryEnd));
+            }
+            entryStart = entryEnd + 1;
+        }
+        return values;
+    }
+
+    /** Returns the index of the field whose key is the given region of the body, or -1. */
+    private static <F extends Enum<F> & Omtp.Field> int indexOfKey(String smsBody, int keyStart,
+            int keyEnd, F[] fields) {
+        int keyLength = keyEnd - keyStart;
+        for (int i = 0; i < fields.length; i++) {
+            String key = fields[i].getKey();
+            if (key.length() == keyLength && smsBody.regionMatches(keyStart, key, 0, keyLength)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns true if only whitespace and field separators are left from the given index. */
+    private static boolean isBlankUntilEnd(String smsBody, int start) {
+        for (int i = start; i < smsBody.length(); i++) {
+            char c = smsBody.charAt(i);
+            if (c != FIELD_SEPARATOR && !isWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int trimStart(String smsBody, int start, int end) {
+        while (start < end && isWhitespace(smsBody.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(String smsBody, int start, int end) {
+        while (end > start && isWhitespace(smsBody.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    /** Whether the character is trimmed, following the definition of {@link String#trim()}. */
+    private static boolean isWhitespace(char c) {
+        return c <= ' ';
+    }
+
+    private static OmtpParseException entryException(String smsBody, int entryStart, int index) {
+        int entryEnd = smsBody.indexOf(FIELD_SEPARATOR, index);
+        return new OmtpParseException("Cannot extract key-value from: "
+                + smsBody.substring(entryStart, entryEnd < 0 ? smsBody.length() : entryEnd));
+    }
+}
@@ -17,10 +17,6 @@ package com.google.android.voicemail.example.sms;
 
 import com.google.android.voicemail.example.spec.Omtp;
 
-import java.text.DateFormat;
-import java.util.HashMap;
-import java.util.Map;
-
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
@@ -28,13 +24,17 @@ import javax.annotation.concurrent.ThreadSafe;
  */
 @ThreadSafe
 public class SmsParserImpl implements SmsParser {
-    private final DateFormat mDateFormat;
+    // Shared copies, as values() creates a new array on every call.
+    private static final Omtp.SyncSmsField[] SYNC_FIELDS = Omtp.SyncSmsField.values();
+    private static final Omtp.StatusSmsField[] STATUS_FIELDS = Omtp.StatusSmsField.values();
+
+    private final TimestampParser mTimestampParser;
 
     /**
-     * @param dateFormat Dateformat to be used for parsing date field in the message.
+     * @param timestampParser Parser to be used for the date field in the message.
      */
-    public SmsParserImpl(DateFormat dateFormat) {
-        mDateFormat = dateFormat;
+    public SmsParserImpl(TimestampParser timestampParser) {
+        mTimestampParser = timestampParser;
     }
 
     @Override
@@ -51,36 +51,17 @@ public class SmsParserImpl implements SmsParser {
         }
     }
 
-    /**
-     * Converts a String object containing a set of key/value pairs, to a Map object.
-     *
-     * @param in a String containing key/value pairs
-     * @param delimEntry delimiter between map entries
-     * @param delimKey delimiter between key and values for each entry
-     * @throws OmtpParseException if failed to parse
-     */
-    private Map<String, String> stringToMap(String in, String delimEntry, String delimKey)
+    private WrappedMessageData<Omtp.StatusSmsField> parseStatusSmsBody(String smsBody)
             throws OmtpParseException {
-        Map<String, String> keyValues = new HashMap<String, String>();
-        String[] entries = in.split(delimEntry);
-        for (String entry : entries) {
-            String[] keyValue = entry.split(delimKey);
-            if (keyValue.length != 2) {
-                throw new OmtpParseException("Cannot extract key-value from: " + entry);
-            }
-            keyValues.put(keyValue[0].trim(), keyValue[1].trim());
-        }
-        return keyValues;
-    }
-
-    private WrappedMessageData parseStatusSmsBody(String smsBody) throws OmtpParseException {
-        return new WrappedMessageData(stringToMap(
-                smsBody.substring(Omtp.STATUS_SMS_PREFIX.length()),
-                Omtp.SMS_FIELD_SEPARATOR, Omtp.SMS_KEY_VALUE_SEPARATOR), mDateFormat);
+        return new WrappedMessageData<Omtp.StatusSmsField>(STATUS_FIELDS,
+                OmtpSmsTokenizer.tokenize(smsBody, Omtp.STATUS_SMS_PREFIX.length(), STATUS_FIELDS),
+                mTimestampParser);
     }
 
-    private WrappedMessageData parseSyncSmsBody(String smsBody) throws OmtpParseException {
-        return new WrappedMessageData(stringToMap(smsBody.substring(Omtp.SYNC_SMS_PREFIX.length()),
-                Omtp.SMS_FIELD_SEPARATOR, Omtp.SMS_KEY_VALUE_SEPARATOR), mDateFormat);
+    private WrappedMessageData<Omtp.SyncSmsField> parseSyncSmsBody(String smsBody)
+            throws OmtpParseException {
+        return new WrappedMessageData<Omtp.SyncSmsField>(SYNC_FIELDS,
+                OmtpSmsTokenizer.tokenize(smsBody, Omtp.SYNC_SMS_PREFIX.length(), SYNC_FIELDS),
+                mTimestampParser);
     }
 }
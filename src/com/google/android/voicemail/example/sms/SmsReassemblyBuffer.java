@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sms;
+
+import android.os.SystemClock;
+
+import com.example.android.voicemail.common.logging.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Reassembles concatenated OMTP SMS whose segments are not all delivered in the same broadcast.
+ * <p>
+ * Segments are kept, keyed by their originator and concatenation reference number, until all the
+ * segments of their message have been received. Only then is the message handed out to be parsed.
+ * At most a given number of incomplete messages are kept: the oldest one is dropped to make room
+ * for a new one. Incomplete messages are also dropped once they have waited for their missing
+ * segments for too long.
+ * <p>
+ * Counts of the messages reassembled, dropped and failing to parse are kept for diagnostics. The
+ * parse outcomes are reported by the {@link OmtpMessageHandler}.
+ * <p>
+ * There should be a single instance of this class, as the segments of a message can be delivered
+ * to different handlers.
+ */
+@ThreadSafe
+public class SmsReassemblyBuffer {
+    private static final Logger logger = Logger.getLogger(SmsReassemblyBuffer.class);
+
+    /** The text of a complete OMTP SMS. */
+    @Immutable
+    /*package*/ static final class Message {
+        private final String mUserData;
+        private final String mMessageBody;
+
+        Message(String userData, String messageBody) {
+            mUserData = userData;
+            mMessageBody = messageBody;
+        }
+
+        /** The user data of the SMS, decoded as UTF-8. */
+        public String getUserData() {
+            return mUserData;
+        }
+
+        /** The message body of the SMS, as decoded by the framework. */
+        public String getMessageBody() {
+            return mMessageBody;
+        }
+    }
+
+    /** The segments received so far of a concatenated message. */
+    private static final class PartialMessage {
+        private final long mFirstSegmentTime;
+        private final String[] mUserData;
+        private final String[] mMessageBodies;
+        private int mReceivedCount;
+
+        public PartialMessage(int segmentCount, long firstSegmentTime) {
+            mFirstSegmentTime = firstSegmentTime;
+            mUserData = new String[segmentCount];
+            mMessageBodies = new String[segmentCount];
+        }
+
+        public Message join() {
+            StringBuilder userData = new StringBuilder();
+            StringBuilder messageBody = new StringBuilder();
+            for (int i = 0; i < mUserData.length; i++) {
+                userData.append(mUserData[i]);
+                messageBody.append(mMessageBodies[i]);
+            }
+            return new Message(userData.toString(), messageBody.toString());
+        }
+    }
+
+    private final int mMaxPartialMessages;
+    private final long mExpiryMillis;
+
+    /** The incomplete messages, keyed by originator and reference, oldest first. */
+    @GuardedBy("this") private final Map<String, PartialMessage> mPartialMessages =
+            new LinkedHashMap<String, PartialMessage>();
+    @GuardedBy("this") private int mReassembledCount;
+    @GuardedBy("this") private int mExpiredCount;
+    @GuardedBy("this") private int mEvictedCount;
+    @GuardedBy("this") private int mDuplicateSegmentCount;
+    @GuardedBy("this") private int mParseRetryCount;
+    @GuardedBy("this") private int mParseFailureCount;
+
+    /**
+     * @param maxPartialMessages how many incomplete messages to keep at most
+     * @param expiryMillis how long to wait for the missing segments of a message
+     */
+    public SmsReassemblyBuffer(int maxPartialMessages, long expiryMillis) {
+        mMaxPartialMessages = maxPartialMessages;
+        mExpiryMillis = expiryMillis;
+    }
+
+    /**
+     * Adds a segment of a concatenated message.
+     *
+     * @return the complete message if this was its last missing segment, or null otherwise
+     */
+    @Nullable
+    /*package*/ synchronized Message addSegment(String originator, ConcatenationHeader header,
+            String userData, String messageBody) {
+        long now = SystemClock.elapsedRealtime();
+        removeExpired(now);
+        String key = originator + "/" + header.getReference();
+        PartialMessage message = mPartialMessages.get(key);
+        if (message != null && message.mUserData.length != header.getSegmentCount()) {
+            // The reference has been reused for another message, the previous one is lost.
+            logger.w("Segment count changed for " + key + ", dropping previous segments.");
+            mPartialMessages.remove(key);
+            mEvictedCount++;
+            message = null;
+        }
+        if (message == null) {
+            if (mPartialMessages.size() >= mMaxPartialMessages) {
+                Iterator<Map.Entry<String, PartialMessage>> eldest =
+                        mPartialMessages.entrySet().iterator();
+                logger.w("Too many incomplete messages, dropping " + eldest.next().getKey());
+                eldest.remove();
+                mEvictedCount++;
+            }
+            message = new PartialMessage(header.getSegmentCount(), now);
+            mPartialMessages.put(key, message);
+        }
+
+        int index = header.getSequenceNumber() - 1;
+        if (message.mUserData[index] != null) {
+            // Delivered again, e.g. after the network did not get our acknowledgement.
+            mDuplicateSegmentCount++;
+            return null;
+        }
+        message.mUserData[index] = userData;
+        message.mMessageBodies[index] = messageBody;
+        message.mReceivedCount++;
+        logger.d(String.format("Segment %d/%d of %s received.", header.getSequenceNumber(),
+                header.getSegmentCount(), key));
+        if (message.mReceivedCount < message.mUserData.length) {
+            return null;
+        }
+        mPartialMessages.remove(key);
+        mReassembledCount++;
+        return message.join();
+    }
+
+    @GuardedBy("this")
+    private void removeExpired(long now) {
+        // Partial messages are in the order of their first segment, so the oldest come first.
+        Iterator<Map.Entry<String, PartialMessage>> iterator =
+                mPartialMessages.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, PartialMessage> entry = iterator.next();
+            if (now - entry.getValue().mFirstSegmentTime < mExpiryMillis) {
+                break;
+            }
+            logger.w("Missing segments of " + entry.getKey() + " not received in time.");
+            iterator.remove();
+            mExpiredCount++;
+        }
+    }
+
+    /** Records that a complete message had to be parsed again from its message body. */
+    /*package*/ synchronized void recordParseRetry() {
+        mParseRetryCount++;
+    }
+
+    /** Records that a complete message could not be parsed at all. */
+    /*package*/ synchronized void recordParseFailure() {
+        mParseFailureCount++;
+        logger.w(String.format("%d messages failed to parse, %d retried, %d reassembled, "
+                + "%d expired, %d evicted.", mParseFailureCount, mParseRetryCount,
+                mReassembledCount, mExpiredCount, mEvictedCount));
+    }
+
+    /** Returns the number of concatenated messages that have been reassembled. */
+    public synchronized int getReassembledCount() {
+        return mReassembledCount;
+    }
+
+    /** Returns the number of incomplete messages dropped because their segments came too late. */
+    public synchronized int getExpiredCount() {
+        return mExpiredCount;
+    }
+
+    /** Returns the number of incomplete messages dropped to make room for newer ones. */
+    public synchronized int getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    /** Returns the number of segments received more than once. */
+    public synchronized int getDuplicateSegmentCount() {
+        return mDuplicateSegmentCount;
+    }
+
+    /** Returns the number of messages whose user data failed to parse, tried again as body. */
+    public synchronized int getParseRetryCount() {
+        return mParseRetryCount;
+    }
+
+    /** Returns the number of messages that failed to parse from both user data and body. */
+    public synchronized int getParseFailureCount() {
+        return mParseFailureCount;
+    }
+}
@@ -61,7 +61,8 @@ import javax.annotation.concurrent.Immutable;
                 + ", mMaxAllowedVoiceSignatureLength=" + mMaxAllowedVoiceSignatureLength + "]";
     }
 
-    public StatusMessageImpl(WrappedMessageData wrappedData) throws OmtpParseException {
+    public StatusMessageImpl(WrappedMessageData<Omtp.StatusSmsField> wrappedData)
+            throws OmtpParseException {
         mProvisioningStatus = wrappedData.extractEnum(Omtp.StatusSmsField.PROVISIONING_STATUS,
                 Omtp.ProvisioningStatus.class);
         mStatusReturnCode = wrappedData.extractEnum(Omtp.StatusSmsField.RETURN_CODE,
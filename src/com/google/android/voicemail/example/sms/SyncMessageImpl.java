@@ -50,7 +50,8 @@ import javax.annotation.concurrent.Immutable;
                 + ", mMsgTimeMillis=" + mMsgTimeMillis + "]";
     }
 
-    public SyncMessageImpl(WrappedMessageData wrappedData) throws OmtpParseException {
+    public SyncMessageImpl(WrappedMessageData<Omtp.SyncSmsField> wrappedData)
+            throws OmtpParseException {
         mSyncTriggerEvent = wrappedData.extractEnum(Omtp.SyncSmsField.SYNC_TRIGGER_EVENT,
                 Omtp.SyncTriggerEvent.class);
         if (mSyncTriggerEvent == null) {
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sms;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Parses timestamps following a {@link java.text.SimpleDateFormat} pattern, compiled once by
+ * {@link #compile(String)}.
+ * <p>
+ * Unlike {@link java.text.DateFormat}, instances have no mutable state and can be shared by any
+ * number of threads. Parsing does not go through a {@link Calendar} either, and allocates nothing
+ * unless the timestamp is invalid or names a time zone by its id.
+ * <p>
+ * Only the pattern letters used by OMTP providers are supported: numeric years (y), months (M),
+ * days (d), hours (H), minutes (m), seconds (s) and milliseconds (S), and time zones (z, Z, X).
+ * Time zones are parsed as {@code Z}, {@code GMT}, {@code UTC}, an offset such as {@code +0200},
+ * {@code +02:00} or {@code GMT+02:00}, or else a time zone id. Without a time zone, the default
+ * time zone when the pattern was compiled is used, as by SimpleDateFormat. A run of whitespace in
+ * the pattern matches any run of whitespace in the timestamp.
+ * <p>
+ * Unlike a lenient {@link java.text.DateFormat}, out of range values are rejected, except for days
+ * beyond the end of the month, which roll over to the next month.
+ */
+@Immutable
+public final class TimestampParser {
+    private static final int YEAR = 0;
+    private static final int MONTH = 1;
+    private static final int DAY = 2;
+    private static final int HOUR = 3;
+    private static final int MINUTE = 4;
+    private static final int SECOND = 5;
+    private static final int MILLISECOND = 6;
+    private static final int FIELD_COUNT = 7;
+    // Not numeric fields.
+    private static final int ZONE = 7;
+    private static final int LITERAL = 8;
+    private static final int WHITESPACE = 9;
+
+    private static final int[] MIN_VALUES = {0, 1, 1, 0, 0, 0, 0};
+    private static final int[] MAX_VALUES = {9999, 12, 31, 23, 59, 59, 999};
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+    /** One element of a compiled pattern. */
+    @Immutable
+    private static final class Element {
+        private final int mKind;
+        /** The number of digits of a numeric field that is followed by another, or 0. */
+        private final int mWidth;
+        /** Whether a year was given with two pattern letters, see {@link #resolveYear}. */
+        private final boolean mAbbreviated;
+        /** The text of a literal, or the pattern letters of a field. */
+        private final String mLiteral;
+
+        private Element(int kind, int width, boolean abbreviated, String literal) {
+            mKind = kind;
+            mWidth = width;
+            mAbbreviated = abbreviated;
+            mLiteral = literal;
+        }
+    }
+
+    private final String mPattern;
+    private final Element[] mElements;
+    /** The first year of the century two digit years are placed in, as SimpleDateFormat does. */
+    private final int mDefaultCenturyStart;
+    /** The time zone of timestamps that do not have one. Only read from once created. */
+    private final TimeZone mDefaultZone;
+
+    private TimestampParser(String pattern, Element[] elements, int defaultCenturyStart,
+            TimeZone defaultZone) {
+        mPattern = pattern;
+        mElements = elements;
+        mDefaultCenturyStart = defaultCenturyStart;
+        mDefaultZone = defaultZone;
+    }
+
+    /**
+     * Compiles a {@link java.text.SimpleDateFormat} pattern.
+     *
+     * @throws IllegalArgumentException if the pattern is invalid or uses unsupported letters
+     */
+    public static TimestampParser compile(String pattern) {
+        List<Element> elements = new ArrayList<Element>();
+        int length = pattern.length();
+        int i = 0;
+        while (i < length) {
+            char c = pattern.charAt(i);
+            if (isAsciiLetter(c)) {
+                int count = 1;
+                while (i + count < length && pattern.charAt(i + count) == c) {
+                    count++;
+                }
+                int kind = kindOfLetter(c, count);
+                if (kind < 0) {
+                    throw new IllegalArgumentException("Unsupported pattern letters '"
+                            + pattern.substring(i, i + count) + "' in " + pattern);
+                }
+                if (kind < FIELD_COUNT && !elements.isEmpty()
+                        && elements.get(elements.size() - 1).mKind < FIELD_COUNT) {
+                    // Adjacent numeric fields can only be told apart by their width.
+                    Element previous = elements.remove(elements.size() - 1);
+                    elements.add(new Element(previous.mKind, previous.mLiteral.length(),
+                            previous.mAbbreviated, previous.mLiteral));
+                }
+                elements.add(new Element(kind, 0, kind == YEAR && count == 2,
+                        pattern.substring(i, i + count)));
+                i += count;
+            } else if (c == '\'') {
+                StringBuilder literal = new StringBuilder();
+                if (i + 1 < length && pattern.charAt(i + 1) == '\'') {
+                    literal.append('\'');
+                    i += 2;
+                } else {
+                    i++;
+                    while (true) {
+                        if (i >= length) {
+                            throw new IllegalArgumentException("Unterminated quote in " + pattern);
+                        }
+                        if (pattern.charAt(i) == '\'') {
+                            if (i + 1 < length && pattern.charAt(i + 1) == '\'') {
+                                literal.append('\'');
+                                i += 2;
+                                continue;
+                            }
+                            i++;
+                            break;
+                        }
+                        literal.append(pattern.charAt(i++));
+                    }
+                }
+                addLiteral(elements, literal.toString());
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(pattern.charAt(i))) {
+                    i++;
+                }
+                if (elements.isEmpty()
+                        || elements.get(elements.size() - 1).mKind != WHITESPACE) {
+                    elements.add(new Element(WHITESPACE, 0, false, null));
+                }
+            } else {
+                addLiteral(elements, String.valueOf(c));
+                i++;
+            }
+        }
+        Calendar now = Calendar.getInstance();
+        return new TimestampParser(pattern, elements.toArray(new Element[elements.size()]),
+                now.get(Calendar.YEAR) - 80, now.getTimeZone());
+    }
+
+    /**
+     * Parses a timestamp, which must match the whole pattern.
+     *
+     * @return the timestamp in milliseconds since the epoch
+     * @throws ParseException if the timestamp does not match the pattern or is out of range
+     */
+    public long parse(String text) throws ParseException {
+        int year = 1970;
+        int month = 1;
+        int day = 1;
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        int millisecond = 0;
+        boolean hasZone = false;
+        long zoneOffset = 0;
+        TimeZone zone = null;
+
+        int length = text.length();
+        int position = 0;
+        for (Element element : mElements) {
+            switch (element.mKind) {
+                case WHITESPACE:
+                    int start = position;
+                    while (position < length && Character.isWhitespace(text.charAt(position))) {
+                        position++;
+                    }
+                    if (position == start) {
+                        throw new ParseException("Whitespace expected in " + text, position);
+                    }
+                    break;
+                case LITERAL:
+                    if (!text.startsWith(element.mLiteral, position)) {
+                        throw new ParseException("'" + element.mLiteral + "' expected in " + text,
+                                position);
+                    }
+                    position += element.mLiteral.length();
+                    break;
+                case ZONE:
+                    hasZone = true;
+                    int zoneEnd = skipZone(text, position);
+                    int offsetStart = position;
+                    if (text.startsWith("GMT", position) || text.startsWith("UTC", position)) {
+                        offsetStart += 3;
+                    } else if (zoneEnd == position + 1 && text.charAt(position) == 'Z') {
+                        offsetStart += 1;
+                    }
+                    if (offsetStart == zoneEnd) {
+                        zoneOffset = 0;
+                    } else if (text.charAt(offsetStart) == '+'
+                            || text.charAt(offsetStart) == '-') {
+                        zoneOffset = parseOffset(text, offsetStart, zoneEnd);
+                    } else if (offsetStart == position) {
+                        zone = lookUpZone(text, position, zoneEnd);
+                    } else {
+                        throw new ParseException("Invalid time zone in " + text, position);
+                    }
+                    position = zoneEnd;
+                    break;
+                default:
+                    int end = element.mWidth > 0
+                            ? Math.min(position + element.mWidth, length)
+                            : skipDigits(text, position);
+                    int value = parseNumber(text, position, end);
+                    if (element.mKind == YEAR && element.mAbbreviated && end - position == 2) {
+                        value = resolveYear(value);
+                    }
+                    if (value < MIN_VALUES[element.mKind] || value > MAX_VALUES[element.mKind]) {
+                        throw new ParseException("Value out of range in " + text, position);
+                    }
+                    position = end;
+                    switch (element.mKind) {
+                        case YEAR: year = value; break;
+                        case MONTH: month = value; break;
+                        case DAY: day = value; break;
+                        case HOUR: hour = value; break;
+                        case MINUTE: minute = value; break;
+                        case SECOND: second = value; break;
+                        default: millisecond = value; break;
+                    }
+                    break;
+            }
+        }
+        if (position != length) {
+            throw new ParseException("Unexpected text at the end of " + text, position);
+        }
+
+        long localMillis = daysSinceEpoch(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60L + minute) * 60L + second) * 1000L + millisecond;
+        if (!hasZone) {
+            zone = mDefaultZone;
+        }
+        if (zone != null) {
+            // Good enough around daylight saving transitions, where local times are ambiguous.
+            zoneOffset = zone.getOffset(localMillis - zone.getRawOffset());
+        }
+        return localMillis - zoneOffset;
+    }
+
+    @Override
+    public String toString() {
+        return "TimestampParser [mPattern=" + mPattern + "]";
+    }
+
+    private static void addLiteral(List<Element> elements, String literal) {
+        if (literal.length() == 0) {
+            return;
+        }
+        if (!elements.isEmpty() && elements.get(elements.size() - 1).mKind == LITERAL) {
+            literal = elements.remove(elements.size() - 1).mLiteral + literal;
+        }
+        elements.add(new Element(LITERAL, 0, false, literal));
+    }
+
+    /** Returns the kind of field of the given pattern letters, or -1 if not supported. */
+    private static int kindOfLetter(char letter, int count) {
+        switch (letter) {
+            case 'y': return YEAR;
+            // Month names are not supported.
+            case 'M': return count <= 2 ? MONTH : -1;
+            case 'd': return DAY;
+            case 'H': return HOUR;
+            case 'm': return MINUTE;
+            case 's': return SECOND;
+            case 'S': return MILLISECOND;
+            case 'z':
+            case 'Z':
+            case 'X':
+                return ZONE;
+            default:
+                return -1;
+        }
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /** Places a two digit year in the century starting 80 years ago. */
+    private int resolveYear(int twoDigitYear) {
+        int year = mDefaultCenturyStart / 100 * 100 + twoDigitYear;
+        return year < mDefaultCenturyStart ? year + 100 : year;
+    }
+
+    private static int skipDigits(String text, int position) {
+        while (position < text.length() && isDigit(text.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    /** Returns the end of the time zone starting at the given position. */
+    private static int skipZone(String text, int position) {
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (!isAsciiLetter(c) && !isDigit(c) && c != '+' && c != '-' && c != ':' && c != '/'
+                    && c != '_') {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int parseNumber(String text, int start, int end) throws ParseException {
+        if (start == end || end - start > 9) {
+            throw new ParseException("Number expected in " + text, start);
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                throw new ParseException("Digit expected in " + text, i);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /** Parses an offset of the form +hh, +hhmm or +hh:mm, returning it in milliseconds. */
+    private static long parseOffset(String text, int start, int end) throws ParseException {
+        int sign = text.charAt(start) == '-' ? -1 : 1;
+        int hoursEnd = skipDigits(text, start + 1);
+        int hours;
+        int minutes = 0;
+        if (hoursEnd == end && end - start == 5) {
+            hours = parseNumber(text, start + 1, start + 3);
+            minutes = parseNumber(text, start + 3, end);
+        } else {
+            hours = parseNumber(text, start + 1, hoursEnd);
+            if (hoursEnd < end) {
+                if (text.charAt(hoursEnd) != ':') {
+                    throw new ParseException("Invalid time zone offset in " + text, hoursEnd);
+                }
+                minutes = parseNumber(text, hoursEnd + 1, end);
+            }
+        }
+        if (hours > 23 || minutes > 59) {
+            throw new ParseException("Time zone offset out of range in " + text, start);
+        }
+        return sign * (hours * 60L + minutes) * MILLIS_PER_MINUTE;
+    }
+
+    private static TimeZone lookUpZone(String text, int start, int end) throws ParseException {
+        String id = text.substring(start, end);
+        TimeZone zone = TimeZone.getTimeZone(id);
+        // Unknown ids are silently mapped to GMT.
+        if (zone.getID().equals("GMT") && !id.equals("GMT")) {
+            throw new ParseException("Unknown time zone " + id + " in " + text, start);
+        }
+        return zone;
+    }
+
+    /** Returns the number of days from 1970-01-01 to the given date of the Gregorian calendar. */
+    private static long daysSinceEpoch(int year, int month, int day) {
+        // Counting years from March, so that the leap day is the last of the year.
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
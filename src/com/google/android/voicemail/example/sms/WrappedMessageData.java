@@ -18,34 +18,47 @@ package com.google.android.voicemail.example.sms;
 import com.google.android.voicemail.example.spec.Omtp;
 import com.google.android.voicemail.example.spec.OmtpUtil;
 
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.util.HashMap;
-import java.util.Map;
 
 import javax.annotation.Nullable;
 
 /**
- * Class wrapping the raw OMTP message data, internally represented as as map of all key-value pairs
- * found in the SMS body.
+ * Class wrapping the raw OMTP message data, internally represented as an array of the values found
+ * in the SMS body for each field of the message type, indexed by the ordinals of the fields.
  * <p>
  * Provides convenience methods to extract parse fields of different types.
  * <p>
  * All the methods return null if either the field was not present or it could not be parsed.
  */
-/*package*/ class WrappedMessageData {
-    private final DateFormat mDateFormat;
+/*package*/ class WrappedMessageData<F extends Enum<F> & Omtp.Field> {
+    private final TimestampParser mTimestampParser;
 
-    private final Map<String, String> mFields;
+    private final F[] mFields;
+    private final String[] mValues;
 
     @Override
     public String toString() {
-        return "WrappedMessageData [mFields=" + mFields + "]";
+        StringBuilder sb = new StringBuilder("WrappedMessageData [mFields={");
+        String separator = "";
+        for (F field : mFields) {
+            if (mValues[field.ordinal()] != null) {
+                sb.append(separator).append(field.getKey()).append('=')
+                        .append(mValues[field.ordinal()]);
+                separator = ", ";
+            }
+        }
+        return sb.append("}]").toString();
     }
 
-    WrappedMessageData(Map<String, String> keyValues, DateFormat dateFormat) {
-        mFields = new HashMap<String, String>(keyValues);
-        mDateFormat = dateFormat;
+    /**
+     * @param fields all the fields of the message type
+     * @param values the values found in the SMS body, as returned by
+     *        {@link OmtpSmsTokenizer#tokenize}, owned by this instance from now on
+     */
+    WrappedMessageData(F[] fields, String[] values, TimestampParser timestampParser) {
+        mFields = fields;
+        mValues = values;
+        mTimestampParser = timestampParser;
     }
 
     /**
@@ -54,8 +67,8 @@ import javax.annotation.Nullable;
      * @return the parsed string value, or null if the field was not present
      */
     @Nullable
-    String extractString(final Omtp.Field field) {
-        return mFields.get(field.getKey());
+    String extractString(final F field) {
+        return mValues[field.ordinal()];
     }
 
     /**
@@ -65,8 +78,8 @@ import javax.annotation.Nullable;
      * @throws OmtpParseException if the field's value could not be parsed
      */
     @Nullable
-    Integer extractInteger(final Omtp.Field field) throws OmtpParseException {
-        String value = mFields.get(field.getKey());
+    Integer extractInteger(final F field) throws OmtpParseException {
+        String value = mValues[field.ordinal()];
         if (value == null) {
             return null;
         }
@@ -80,21 +93,21 @@ import javax.annotation.Nullable;
 
     /**
      * Extracts the requested field from underlying data and parses it as a date/time represented in
-     * {@link Omtp#DATE_TIME_FORMAT} format.
+     * the provider's date format, such as {@link Omtp#DATE_TIME_FORMAT}.
      *
      * @param field The omtp field to be extracted
      * @return the parsed string value, or null if the field was not present
      * @throws OmtpParseException if the field's value could not be parsed
      */
     @Nullable
-    Long extractTime(final Omtp.Field field) throws OmtpParseException {
-        String value = mFields.get(field.getKey());
+    Long extractTime(final F field) throws OmtpParseException {
+        String value = mValues[field.ordinal()];
         if (value == null) {
             return null;
         }
 
         try {
-            return mDateFormat.parse(value).getTime();
+            return mTimestampParser.parse(value);
         } catch (ParseException e) {
             throw new OmtpParseException(field, value, e);
         }
@@ -108,9 +121,9 @@ import javax.annotation.Nullable;
      *             possibleValues
      */
     @Nullable
-    <T extends Enum<T> & Omtp.EnumValue> T extractEnum(final Omtp.Field field,
+    <T extends Enum<T> & Omtp.EnumValue> T extractEnum(final F field,
             Class<T> enumClass) throws OmtpParseException {
-        String value = mFields.get(field.getKey());
+        String value = mValues[field.ordinal()];
         if (value == null) {
             return null;
         }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.storage;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Interface for storing the operations on remote voicemails that have not been performed yet.
+ * <p>
+ * Operations are kept until they are known to have been performed on the server, so that they
+ * survive network failures and process restarts. At most one operation is kept per voicemail:
+ * queueing an operation for a voicemail that already has one pending coalesces the two.
+ */
+public interface RemoteOutbox {
+    /** The operations that can be pending on a remote voicemail. */
+    public enum PendingOperation {
+        MARK_AS_READ,
+        DELETE
+    }
+
+    /**
+     * Queues an operation on the voicemails with the given source data.
+     * <p>
+     * A DELETE replaces a pending MARK_AS_READ, which it makes redundant, whereas a MARK_AS_READ
+     * has no effect on a voicemail that already has an operation pending.
+     */
+    public void enqueue(PendingOperation operation, Collection<String> sourceData);
+
+    /** Returns the pending operations, keyed by the source data of their voicemail. */
+    public Map<String, PendingOperation> getAll();
+
+    /**
+     * Removes the given operation on the voicemails with the given source data, once it has been
+     * performed. Voicemails whose pending operation has since been replaced by another one are
+     * left untouched.
+     */
+    public void remove(PendingOperation operation, Collection<String> sourceData);
+}
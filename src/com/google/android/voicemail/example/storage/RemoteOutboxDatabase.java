@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.storage;
+
+import com.google.android.voicemail.example.db.ProviderDatabaseHelper;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.voicemail.common.logging.Logger;
+import com.example.android.voicemail.common.utils.CloseUtils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Database for storing the operations on remote voicemails that have not been performed yet.
+ */
+public class RemoteOutboxDatabase implements RemoteOutbox {
+    private static final Logger logger = Logger.getLogger(RemoteOutboxDatabase.class);
+
+    private static final String DB_NAME = "remoteoutbox.db";
+    private static final int DB_VERSION = 1;
+    private static final String REMOTE_OUTBOX_TABLE_NAME = "remote_outbox";
+
+    private final ProviderDatabaseHelper mDbHelper;
+
+    public RemoteOutboxDatabase(Context context) {
+        mDbHelper = new ProviderDatabaseHelper(context, DB_NAME, DB_VERSION,
+                REMOTE_OUTBOX_TABLE_NAME, RemoteOutboxDbColumn.values());
+    }
+
+    @Override
+    public void enqueue(PendingOperation operation, Collection<String> sourceData) {
+        logger.d(String.format("Queueing %s of %d voicemails", operation, sourceData.size()));
+        // A DELETE overrides whatever is pending, a MARK_AS_READ never does.
+        int conflictAlgorithm = operation == PendingOperation.DELETE
+                ? SQLiteDatabase.CONFLICT_REPLACE : SQLiteDatabase.CONFLICT_IGNORE;
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String value : sourceData) {
+                db.insertWithOnConflict(REMOTE_OUTBOX_TABLE_NAME, null,
+                        getContentValues(value, operation), conflictAlgorithm);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public Map<String, PendingOperation> getAll() {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = null;
+        try {
+            cursor = db.query(REMOTE_OUTBOX_TABLE_NAME, null, null, null, null, null, null);
+            Map<String, PendingOperation> operations =
+                    new HashMap<String, PendingOperation>(cursor.getCount());
+            int sourceDataIndex = getColumnIndex(cursor, RemoteOutboxDbColumn.SOURCE_DATA);
+            int operationIndex = getColumnIndex(cursor, RemoteOutboxDbColumn.OPERATION);
+            while (cursor.moveToNext()) {
+                operations.put(cursor.getString(sourceDataIndex),
+                        PendingOperation.valueOf(cursor.getString(operationIndex)));
+            }
+            return operations;
+        } finally {
+            CloseUtils.closeQuietly(cursor);
+        }
+    }
+
+    @Override
+    public void remove(PendingOperation operation, Collection<String> sourceData) {
+        logger.d(String.format("Removing %s of %d voicemails", operation, sourceData.size()));
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        String whereClause = RemoteOutboxDbColumn.SOURCE_DATA.getColumnName() + " = ? AND "
+                + RemoteOutboxDbColumn.OPERATION.getColumnName() + " = ?";
+        db.beginTransaction();
+        try {
+            for (String value : sourceData) {
+                db.delete(REMOTE_OUTBOX_TABLE_NAME, whereClause,
+                        new String[] {value, operation.name()});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static int getColumnIndex(Cursor cursor, RemoteOutboxDbColumn column) {
+        return cursor.getColumnIndexOrThrow(column.getColumnName());
+    }
+
+    /** Returns ContentValues populated with a pending operation. */
+    private static ContentValues getContentValues(String sourceData, PendingOperation operation) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(RemoteOutboxDbColumn.SOURCE_DATA.getColumnName(), sourceData);
+        contentValues.put(RemoteOutboxDbColumn.OPERATION.getColumnName(), operation.name());
+        return contentValues;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.storage;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An immutable data object representing the state of a remote voicemail as it was left by the last
+ * sync, as stored in the remote state journal.
+ */
+@Immutable
+public class RemoteState {
+    private final String mSourceData;
+    private final boolean mIsRead;
+    private final boolean mHasContent;
+    private final boolean mIsDeleted;
+
+    /**
+     * @param sourceData the source data identifying the voicemail on the server
+     * @param isRead whether the voicemail is read
+     * @param hasContent whether the content of the voicemail has been downloaded locally
+     * @param isDeleted whether the voicemail has been deleted from the server
+     */
+    public RemoteState(String sourceData, boolean isRead, boolean hasContent, boolean isDeleted) {
+        if (sourceData == null) {
+            throw new IllegalArgumentException("sourceData must be set in RemoteState");
+        }
+        mSourceData = sourceData;
+        mIsRead = isRead;
+        mHasContent = hasContent;
+        mIsDeleted = isDeleted;
+    }
+
+    public String getSourceData() {
+        return mSourceData;
+    }
+
+    public boolean isRead() {
+        return mIsRead;
+    }
+
+    public boolean hasContent() {
+        return mHasContent;
+    }
+
+    public boolean isDeleted() {
+        return mIsDeleted;
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteState [mSourceData=" + mSourceData
+                + ", mIsRead=" + mIsRead
+                + ", mHasContent=" + mHasContent
+                + ", mIsDeleted=" + mIsDeleted + "]";
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.storage;
+
+import com.google.android.voicemail.example.db.ProviderDatabaseHelper;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.voicemail.common.logging.Logger;
+import com.example.android.voicemail.common.utils.CloseUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Database for storing the state of remote voicemails between syncs.
+ */
+public class RemoteStateDatabase implements RemoteStateJournal {
+    private static final Logger logger = Logger.getLogger(RemoteStateDatabase.class);
+
+    private static final String DB_NAME = "remotestate.db";
+    private static final int DB_VERSION = 1;
+    private static final String REMOTE_STATE_TABLE_NAME = "remote_state";
+    /** SQLite's default limit on the number of arguments bound to a single query. */
+    private static final int MAX_SELECTION_ARGS = 999;
+
+    private final ProviderDatabaseHelper mDbHelper;
+
+    public RemoteStateDatabase(Context context) {
+        mDbHelper = new ProviderDatabaseHelper(context, DB_NAME, DB_VERSION,
+                REMOTE_STATE_TABLE_NAME, RemoteStateDbColumn.values());
+    }
+
+    @Override
+    public Map<String, RemoteState> getAllStates() {
+        Map<String, RemoteState> states = new HashMap<String, RemoteState>();
+        readStates(null, null, states);
+        return states;
+    }
+
+    @Override
+    public Map<String, RemoteState> getStates(Collection<String> sourceData) {
+        List<String> keys = new ArrayList<String>(sourceData);
+        Map<String, RemoteState> states = new HashMap<String, RemoteState>(keys.size());
+        // Queried in chunks, as the number of arguments bound to a query is limited.
+        for (int start = 0; start < keys.size(); start += MAX_SELECTION_ARGS) {
+            List<String> chunk = keys.subList(start,
+                    Math.min(start + MAX_SELECTION_ARGS, keys.size()));
+            StringBuilder selection = new StringBuilder(
+                    RemoteStateDbColumn.SOURCE_DATA.getColumnName()).append(" IN (");
+            for (int i = 0; i < chunk.size(); ++i) {
+                selection.append(i == 0 ? "?" : ",?");
+            }
+            selection.append(")");
+            readStates(selection.toString(), chunk.toArray(new String[chunk.size()]), states);
+        }
+        return states;
+    }
+
+    /** Adds the states matching the selection to the given map, keyed by source data. */
+    private void readStates(String selection, String[] selectionArgs,
+            Map<String, RemoteState> states) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = null;
+        try {
+            cursor = db.query(REMOTE_STATE_TABLE_NAME, null, selection, selectionArgs, null, null,
+                    null);
+            int sourceDataIndex = getColumnIndex(cursor, RemoteStateDbColumn.SOURCE_DATA);
+            int isReadIndex = getColumnIndex(cursor, RemoteStateDbColumn.IS_READ);
+            int hasContentIndex = getColumnIndex(cursor, RemoteStateDbColumn.HAS_CONTENT);
+            int isDeletedIndex = getColumnIndex(cursor, RemoteStateDbColumn.IS_DELETED);
+            while (cursor.moveToNext()) {
+                RemoteState state = new RemoteState(cursor.getString(sourceDataIndex),
+                        cursor.getInt(isReadIndex) == 1,
+                        cursor.getInt(hasContentIndex) == 1,
+                        cursor.getInt(isDeletedIndex) == 1);
+                states.put(state.getSourceData(), state);
+            }
+        } finally {
+            CloseUtils.closeQuietly(cursor);
+        }
+    }
+
+    @Override
+    public void update(Collection<RemoteState> states, Collection<String> removedSourceData) {
+        logger.d(String.format("Recording %d remote states, removing %d", states.size(),
+                removedSourceData.size()));
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        String whereClause = RemoteStateDbColumn.SOURCE_DATA.getColumnName() + " = ?";
+        db.beginTransaction();
+        try {
+            for (RemoteState state : states) {
+                db.replace(REMOTE_STATE_TABLE_NAME, null, getContentValues(state));
+            }
+            for (String sourceData : removedSourceData) {
+                db.delete(REMOTE_STATE_TABLE_NAME, whereClause, new String[] {sourceData});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static int getColumnIndex(Cursor cursor, RemoteStateDbColumn column) {
+        return cursor.getColumnIndexOrThrow(column.getColumnName());
+    }
+
+    /** Returns ContentValues populated with values from the supplied remote state. */
+    private static ContentValues getContentValues(RemoteState state) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(RemoteStateDbColumn.SOURCE_DATA.getColumnName(), state.getSourceData());
+        contentValues.put(RemoteStateDbColumn.IS_READ.getColumnName(), state.isRead() ? 1 : 0);
+        contentValues.put(RemoteStateDbColumn.HAS_CONTENT.getColumnName(),
+                state.hasContent() ? 1 : 0);
+        contentValues.put(RemoteStateDbColumn.IS_DELETED.getColumnName(),
+                state.isDeleted() ? 1 : 0);
+        return contentValues;
+    }
+}
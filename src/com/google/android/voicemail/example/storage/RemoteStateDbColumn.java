@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.storage;
+
+import com.google.android.voicemail.example.db.DatabaseColumn;
+
+/**
+ * Database columns in remote state journal database.
+ */
+public enum RemoteStateDbColumn implements DatabaseColumn {
+    SOURCE_DATA("source_data", "TEXT PRIMARY KEY", 1),
+    IS_READ("is_read", "INTEGER", 1),
+    HAS_CONTENT("has_content", "INTEGER", 1),
+    IS_DELETED("is_deleted", "INTEGER", 1);
+
+    private final String mName;
+    private final String mSqlType;
+    private final int mSinceVersion;
+
+    private RemoteStateDbColumn(String name, String sqlType, int sinceVersion) {
+        mName = name;
+        mSqlType = sqlType;
+        mSinceVersion = sinceVersion;
+    }
+
+    @Override
+    public String getColumnName() {
+        return mName;
+    }
+
+    @Override
+    public String getColumnType() {
+        return mSqlType;
+    }
+
+    @Override
+    public int getSinceVersion() {
+        return mSinceVersion;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.storage;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Interface for storing the state of remote voicemails between syncs.
+ * <p>
+ * This allows a sync to tell which voicemails have changed since the last sync.
+ */
+public interface RemoteStateJournal {
+    /**
+     * Returns the recorded state of all the remote voicemails, keyed by their source data.
+     */
+    public Map<String, RemoteState> getAllStates();
+
+    /**
+     * Returns the recorded state of the remote voicemails with the given source data, keyed by
+     * their source data. Voicemails with no recorded state are missing from the result.
+     */
+    public Map<String, RemoteState> getStates(Collection<String> sourceData);
+
+    /**
+     * Records the state of the given remote voicemails, replacing any state previously recorded for
+     * them, and forgets the voicemails with the given source data, all at once.
+     *
+     * @param states the new states to record
+     * @param removedSourceData the source data of the voicemails to forget
+     */
+    public void update(Collection<RemoteState> states, Collection<String> removedSourceData);
+}
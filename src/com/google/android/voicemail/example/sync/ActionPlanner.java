@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sync;
+
+import com.example.android.voicemail.common.core.Voicemail;
+import com.example.android.voicemail.common.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compacts the list of actions produced by a resolve policy for one store into the minimal list of
+ * actions with the same effect.
+ * <p>
+ * Actions are grouped by the source data of their voicemail, and within each group:
+ * <ul>
+ * <li>a DELETE makes every other action redundant, so only the first DELETE is kept;</li>
+ * <li>otherwise only the first action of each operation is kept;</li>
+ * <li>a MARK_AS_READ of a voicemail already known to be read is dropped;</li>
+ * <li>a FETCH_CONTENT of a voicemail that already has content is dropped.</li>
+ * </ul>
+ * Groups are kept in the order of their first action, and actions on voicemails without source
+ * data are kept as they are, since they cannot be related to each other.
+ * <p>
+ * It also works out which FETCH_CONTENT actions a {@link DownloadPolicy} defers to playback time,
+ * see {@link #getDeferredDownloads(Collection, VoicemailColumns, DownloadPolicy)}, and orders the
+ * actions so that the ones that make a voicemail playable are performed first, see
+ * {@link #prioritize(List)}.
+ */
+public final class ActionPlanner {
+    private static final Logger logger = Logger.getLogger(ActionPlanner.class);
+
+    /**
+     * Orders actions by priority, then from the newest to the oldest voicemail. The priority of an
+     * action is the index of its class in this order:
+     * <ol>
+     * <li>INSERT of an unread voicemail, which the user has not heard yet;</li>
+     * <li>FETCH_CONTENT of an unread voicemail, which makes it playable;</li>
+     * <li>INSERT of a read voicemail;</li>
+     * <li>FETCH_CONTENT of a read voicemail;</li>
+     * <li>DELETE;</li>
+     * <li>MARK_AS_READ, which is housekeeping of flags.</li>
+     * </ol>
+     */
+    private static final Comparator<VvmStore.Action> PRIORITY_ORDER =
+            new Comparator<VvmStore.Action>() {
+        @Override
+        public int compare(VvmStore.Action first, VvmStore.Action second) {
+            int firstPriority = getPriority(first);
+            int secondPriority = getPriority(second);
+            if (firstPriority != secondPriority) {
+                return firstPriority < secondPriority ? -1 : 1;
+            }
+            long firstTimestamp = first.getVoicemail().getTimestampMillis();
+            long secondTimestamp = second.getVoicemail().getTimestampMillis();
+            return firstTimestamp > secondTimestamp ? -1
+                    : (firstTimestamp < secondTimestamp ? 1 : 0);
+        }
+    };
+
+    // Static class with helper methods, so private constructor.
+    private ActionPlanner() {
+    }
+
+    /**
+     * Returns the compacted list of actions. The given list is not modified.
+     */
+    public static List<VvmStore.Action> compact(List<VvmStore.Action> actions) {
+        // Use a placeholder key for actions without source data, so that they keep their place.
+        Map<Object, List<VvmStore.Action>> groups =
+                new LinkedHashMap<Object, List<VvmStore.Action>>();
+        for (VvmStore.Action action : actions) {
+            String sourceData = action.getVoicemail().getSourceData();
+            Object key = sourceData != null ? sourceData : new Object();
+            List<VvmStore.Action> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<VvmStore.Action>(1);
+                groups.put(key, group);
+            }
+            group.add(action);
+        }
+        List<VvmStore.Action> compacted = new ArrayList<VvmStore.Action>(actions.size());
+        for (List<VvmStore.Action> group : groups.values()) {
+            compactGroup(group, compacted);
+        }
+        if (compacted.size() != actions.size()) {
+            logger.d(String.format("Compacted actions from %s to %s",
+                    VvmStoreActions.countOperations(actions),
+                    VvmStoreActions.countOperations(compacted)));
+        }
+        return compacted;
+    }
+
+    /**
+     * Returns the actions ordered so that the newest unheard voicemails become playable first, and
+     * flag updates are performed last. The given list is not modified.
+     * <p>
+     * Stores perform actions in the order they are given, so this decides how long the user waits
+     * for the first playable voicemail of a sync.
+     */
+    public static List<VvmStore.Action> prioritize(List<VvmStore.Action> actions) {
+        List<VvmStore.Action> prioritized = new ArrayList<VvmStore.Action>(actions);
+        // The sort is stable, so actions of equal priority and age keep their relative order.
+        Collections.sort(prioritized, PRIORITY_ORDER);
+        return prioritized;
+    }
+
+    private static int getPriority(VvmStore.Action action) {
+        switch (action.getOperation()) {
+            case INSERT:
+                return action.getVoicemail().isRead() ? 2 : 0;
+            case FETCH_CONTENT:
+                return action.getVoicemail().isRead() ? 3 : 1;
+            case DELETE:
+                return 4;
+            case MARK_AS_READ:
+                return 5;
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + action.getOperation());
+        }
+    }
+
+    /**
+     * Returns the FETCH_CONTENT actions, among the given ones, whose voicemail is not selected for
+     * download by the given policy.
+     *
+     * @param remoteMessages all the voicemails fetched from the remote store by the resolve
+     */
+    public static Set<VvmStore.Action> getDeferredDownloads(Collection<VvmStore.Action> actions,
+            VoicemailColumns remoteMessages, DownloadPolicy policy) {
+        List<VvmStore.Action> candidates = new ArrayList<VvmStore.Action>();
+        for (VvmStore.Action action : actions) {
+            if (action.getOperation() == VvmStore.Operation.FETCH_CONTENT) {
+                candidates.add(action);
+            }
+        }
+        BitSet selected = new BitSet(candidates.size());
+        selected.set(0, candidates.size());
+        policy.selectForDownload(new ActionColumns(candidates), remoteMessages, selected);
+        Set<VvmStore.Action> deferred =
+                Collections.newSetFromMap(new IdentityHashMap<VvmStore.Action, Boolean>());
+        for (int row = selected.nextClearBit(0); row < candidates.size();
+                row = selected.nextClearBit(row + 1)) {
+            deferred.add(candidates.get(row));
+        }
+        if (!deferred.isEmpty()) {
+            logger.d(String.format("Deferred %d of %d downloads to playback time",
+                    deferred.size(), candidates.size()));
+        }
+        return deferred;
+    }
+
+    /** The columns of the voicemails of a list of actions, read from the voicemails themselves. */
+    private static final class ActionColumns implements VoicemailColumns {
+        private final List<VvmStore.Action> mActions;
+
+        public ActionColumns(List<VvmStore.Action> actions) {
+            mActions = actions;
+        }
+
+        @Override
+        public int size() {
+            return mActions.size();
+        }
+
+        @Override
+        public long getTimestampMillis(int row) {
+            return mActions.get(row).getVoicemail().getTimestampMillis();
+        }
+
+        @Override
+        public long getDuration(int row) {
+            Voicemail voicemail = mActions.get(row).getVoicemail();
+            return voicemail.hasDuration() ? voicemail.getDuration() : 0;
+        }
+
+        @Override
+        public boolean isRead(int row) {
+            return mActions.get(row).getVoicemail().isRead();
+        }
+    }
+
+    /** Appends the minimal equivalent of the actions on a single voicemail. */
+    private static void compactGroup(List<VvmStore.Action> group,
+            List<VvmStore.Action> compacted) {
+        Map<VvmStore.Operation, VvmStore.Action> firstByOperation =
+                new EnumMap<VvmStore.Operation, VvmStore.Action>(VvmStore.Operation.class);
+        for (VvmStore.Action action : group) {
+            if (!firstByOperation.containsKey(action.getOperation()) && !isNoOp(action)) {
+                firstByOperation.put(action.getOperation(), action);
+            }
+        }
+        VvmStore.Action delete = firstByOperation.get(VvmStore.Operation.DELETE);
+        if (delete != null) {
+            compacted.add(delete);
+            return;
+        }
+        // Keep the original order of the remaining actions.
+        for (VvmStore.Action action : group) {
+            if (firstByOperation.get(action.getOperation()) == action) {
+                compacted.add(action);
+            }
+        }
+    }
+
+    /** Returns true if the action would not change anything, as far as the voicemail tells. */
+    private static boolean isNoOp(VvmStore.Action action) {
+        Voicemail voicemail = action.getVoicemail();
+        switch (action.getOperation()) {
+            case MARK_AS_READ:
+                return voicemail.hasRead() && voicemail.isRead();
+            case FETCH_CONTENT:
+                return voicemail.hasContent();
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sync;
+
+import com.google.android.voicemail.example.callbacks.Callback;
+
+import com.example.android.voicemail.common.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link SyncResolver} that makes sure at most one sync is in flight at any time.
+ * <p>
+ * Sync requests are not passed on to the wrapped resolver straight away. The first request starts
+ * a debounce window, and all the requests made until the window expires are merged into a single
+ * sync: a full sync if any of them asked for one, or else a sync of the union of the requested
+ * uids. Requests made while that sync is running are merged in the same way into one follow-up
+ * sync, which is started once the running one has completed.
+ * <p>
+ * Every request's callback is invoked with the result of the sync it was merged into.
+ * <p>
+ * A sync that has not completed within the timeout, e.g. because its IMAP session hung, is failed
+ * so that the follow-up sync can start. Its result, if it ever comes, is ignored.
+ * <p>
+ * There should be a single instance of this class for each account, shared by everything that
+ * triggers syncs for that account.
+ */
+@ThreadSafe
+public class CoalescingSyncResolver implements SyncResolver {
+    private static final Logger logger = Logger.getLogger(CoalescingSyncResolver.class);
+
+    private final SyncResolver mDelegate;
+    private final ScheduledExecutorService mScheduler;
+    private final long mDebounceMillis;
+    private final long mTimeoutMillis;
+
+    /** Whether a sync has been started on the delegate and has not completed yet. */
+    @GuardedBy("this") private boolean mSyncInFlight;
+    /** Whether the next sync has been scheduled to start after the debounce window. */
+    @GuardedBy("this") private boolean mSyncScheduled;
+    /** Whether the next sync should be a full sync. */
+    @GuardedBy("this") private boolean mPendingFullSync;
+    /** The uids to sync in the next sync, if it is not a full sync. */
+    @GuardedBy("this") private final Set<String> mPendingUids = new LinkedHashSet<String>();
+    /** The callbacks of the requests merged into the next sync. */
+    @GuardedBy("this") private final List<Callback<Void>> mPendingCallbacks =
+            new ArrayList<Callback<Void>>();
+
+    /**
+     * @param delegate the resolver that performs the syncs
+     * @param scheduler used to start syncs once the debounce window has expired
+     * @param debounceMillis how long to wait for more requests before starting a sync
+     * @param timeoutMillis how long to wait for a sync to complete before failing it
+     */
+    public CoalescingSyncResolver(SyncResolver delegate, ScheduledExecutorService scheduler,
+            long debounceMillis, long timeoutMillis) {
+        mDelegate = delegate;
+        mScheduler = scheduler;
+        mDebounceMillis = debounceMillis;
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void syncAllMessages(Callback<Void> callback) {
+        enqueue(null, callback);
+    }
+
+    @Override
+    public void syncSpecificMessages(List<String> uids, Callback<Void> callback) {
+        if (uids.size() == 0) {
+            // Nothing to resolve.
+            callback.onSuccess(null);
+            return;
+        }
+        enqueue(uids, callback);
+    }
+
+    /**
+     * Merges a request into the next sync, scheduling that sync if needed.
+     *
+     * @param uids the uids to sync, or null for a full sync
+     */
+    private synchronized void enqueue(List<String> uids, Callback<Void> callback) {
+        if (uids == null) {
+            mPendingFullSync = true;
+            mPendingUids.clear();
+        } else if (!mPendingFullSync) {
+            mPendingUids.addAll(uids);
+        }
+        mPendingCallbacks.add(callback);
+        if (mSyncInFlight) {
+            logger.d("Sync in progress, request merged into the follow-up sync.");
+        } else {
+            scheduleIfNeeded();
+        }
+    }
+
+    @GuardedBy("this")
+    private void scheduleIfNeeded() {
+        if (mSyncScheduled || mPendingCallbacks.isEmpty()) {
+            return;
+        }
+        mSyncScheduled = true;
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                startPendingSync();
+            }
+        }, mDebounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void startPendingSync() {
+        boolean fullSync;
+        List<String> uids;
+        List<Callback<Void>> callbacks;
+        synchronized (this) {
+            mSyncScheduled = false;
+            mSyncInFlight = true;
+            fullSync = mPendingFullSync;
+            uids = new ArrayList<String>(mPendingUids);
+            callbacks = new ArrayList<Callback<Void>>(mPendingCallbacks);
+            mPendingFullSync = false;
+            mPendingUids.clear();
+            mPendingCallbacks.clear();
+        }
+        logger.d(String.format("Starting sync for %d merged requests.", callbacks.size()));
+        final SyncCompletedCallback callback = new SyncCompletedCallback(callbacks);
+        callback.setWatchdog(mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                logger.w("Sync did not complete in time, giving up on it.");
+                callback.onFailure(new TimeoutException(
+                        "Sync did not complete within " + mTimeoutMillis + " ms"));
+            }
+        }, mTimeoutMillis, TimeUnit.MILLISECONDS));
+        try {
+            if (fullSync) {
+                mDelegate.syncAllMessages(callback);
+            } else {
+                mDelegate.syncSpecificMessages(uids, callback);
+            }
+        } catch (RuntimeException e) {
+            callback.onFailure(e);
+        }
+    }
+
+    /** Called when the sync in flight has completed, successfully or not. */
+    private synchronized void onSyncCompleted() {
+        mSyncInFlight = false;
+        scheduleIfNeeded();
+    }
+
+    /**
+     * Passes the result of a sync on to the callbacks of all the requests merged into it.
+     */
+    private class SyncCompletedCallback implements Callback<Void> {
+        private final List<Callback<Void>> mCallbacks;
+        private final AtomicBoolean mCompleted = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> mWatchdog;
+
+        public SyncCompletedCallback(List<Callback<Void>> callbacks) {
+            mCallbacks = callbacks;
+        }
+
+        /** Sets the task failing the sync on timeout, to be cancelled once the sync completes. */
+        public void setWatchdog(ScheduledFuture<?> watchdog) {
+            mWatchdog = watchdog;
+        }
+
+        @Override
+        public void onSuccess(Void result) {
+            if (!mCompleted.getAndSet(true)) {
+                cancelWatchdog();
+                onSyncCompleted();
+                for (Callback<Void> callback : mCallbacks) {
+                    callback.onSuccess(result);
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(Exception error) {
+            if (!mCompleted.getAndSet(true)) {
+                cancelWatchdog();
+                onSyncCompleted();
+                for (Callback<Void> callback : mCallbacks) {
+                    callback.onFailure(error);
+                }
+            }
+        }
+
+        private void cancelWatchdog() {
+            ScheduledFuture<?> watchdog = mWatchdog;
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
+    }
+}
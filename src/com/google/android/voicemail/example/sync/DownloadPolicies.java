@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sync;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Factory methods for the standard {@link DownloadPolicy} implementations.
+ * <p>
+ * Neither the remote listing nor the voicemails carry the size of the content, so sizes are
+ * estimated from the duration of the voicemail, which is filled in from the length field of the
+ * OMTP sync SMS, see {@link #estimateContentBytes(long)}.
+ */
+public final class DownloadPolicies {
+    /** Approximate size of one second of AMR-NB audio at 12.2 kbit/s, including framing. */
+    private static final long BYTES_PER_SECOND = 1600;
+    /** The duration assumed for voicemails whose duration is not known. */
+    private static final long DEFAULT_DURATION_SECONDS = 60;
+
+    private static final DownloadPolicy DOWNLOAD_ALL = new DownloadPolicy() {
+        @Override
+        public void selectForDownload(VoicemailColumns candidates,
+                VoicemailColumns remoteMessages, BitSet selected) {
+            // Keeps the whole selection.
+        }
+    };
+
+    private static final DownloadPolicy UNREAD_ONLY = new DownloadPolicy() {
+        @Override
+        public void selectForDownload(VoicemailColumns candidates,
+                VoicemailColumns remoteMessages, BitSet selected) {
+            for (int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)) {
+                if (candidates.isRead(row)) {
+                    selected.clear(row);
+                }
+            }
+        }
+    };
+
+    // Static class with factory methods, so private constructor.
+    private DownloadPolicies() {
+    }
+
+    /** Returns a policy that downloads the content of every voicemail during the sync. */
+    public static DownloadPolicy downloadAll() {
+        return DOWNLOAD_ALL;
+    }
+
+    /** Returns a policy that only downloads the content of unread voicemails. */
+    public static DownloadPolicy unreadOnly() {
+        return UNREAD_ONLY;
+    }
+
+    /**
+     * Returns a policy that only downloads the content of the given number of newest voicemails of
+     * the remote store.
+     * <p>
+     * The limit applies to the whole remote store rather than to the candidates, so that each sync
+     * does not download the next batch of older voicemails.
+     */
+    public static DownloadPolicy newest(final int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid count: " + count);
+        }
+        return new DownloadPolicy() {
+            @Override
+            public void selectForDownload(VoicemailColumns candidates,
+                    VoicemailColumns remoteMessages, BitSet selected) {
+                if (remoteMessages.size() <= count) {
+                    return;
+                }
+                if (count == 0) {
+                    selected.clear();
+                    return;
+                }
+                long[] timestamps = new long[remoteMessages.size()];
+                for (int row = 0; row < timestamps.length; ++row) {
+                    timestamps[row] = remoteMessages.getTimestampMillis(row);
+                }
+                Arrays.sort(timestamps);
+                long oldestTimestamp = timestamps[timestamps.length - count];
+                for (int row = selected.nextSetBit(0); row >= 0;
+                        row = selected.nextSetBit(row + 1)) {
+                    if (candidates.getTimestampMillis(row) < oldestTimestamp) {
+                        selected.clear(row);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a policy that downloads the content of the newest candidates, as long as their
+     * estimated total size does not exceed the given number of bytes.
+     */
+    public static DownloadPolicy maxBytes(final long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid byte limit: " + maxBytes);
+        }
+        return new DownloadPolicy() {
+            @Override
+            public void selectForDownload(final VoicemailColumns candidates,
+                    VoicemailColumns remoteMessages, BitSet selected) {
+                // There is no primitive sort with a comparator, so sort the boxed rows.
+                Integer[] rows = new Integer[selected.cardinality()];
+                int i = 0;
+                for (int row = selected.nextSetBit(0); row >= 0;
+                        row = selected.nextSetBit(row + 1)) {
+                    rows[i++] = row;
+                }
+                Arrays.sort(rows, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer first, Integer second) {
+                        long firstTimestamp = candidates.getTimestampMillis(first);
+                        long secondTimestamp = candidates.getTimestampMillis(second);
+                        return firstTimestamp > secondTimestamp ? -1
+                                : (firstTimestamp < secondTimestamp ? 1 : 0);
+                    }
+                });
+                long totalBytes = 0;
+                for (Integer row : rows) {
+                    totalBytes += estimateContentBytes(candidates.getDuration(row));
+                    // Once over the limit, none of the older candidates is selected.
+                    if (totalBytes > maxBytes) {
+                        selected.clear(row);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a policy that applies each of the given policies in turn, each one selecting among
+     * the voicemails selected by the previous one.
+     */
+    public static DownloadPolicy allOf(DownloadPolicy... policies) {
+        final List<DownloadPolicy> policyList = Arrays.asList(policies.clone());
+        return new DownloadPolicy() {
+            @Override
+            public void selectForDownload(VoicemailColumns candidates,
+                    VoicemailColumns remoteMessages, BitSet selected) {
+                for (DownloadPolicy policy : policyList) {
+                    policy.selectForDownload(candidates, remoteMessages, selected);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the estimated number of bytes of the content of a voicemail of the given duration,
+     * which is 0 if not known.
+     */
+    public static long estimateContentBytes(long durationSeconds) {
+        return (durationSeconds > 0 ? durationSeconds : DEFAULT_DURATION_SECONDS)
+                * BYTES_PER_SECOND;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sync;
+
+import java.util.BitSet;
+
+/**
+ * Decides which voicemail contents are downloaded as part of a sync.
+ * <p>
+ * The content of a voicemail that is not selected is not downloaded by the sync, and stays missing
+ * until a voicemail client requests it, e.g., with
+ * {@link android.provider.VoicemailContract#ACTION_FETCH_VOICEMAIL} when the user plays it.
+ * Limiting the downloads keeps the first sync of a fresh install, which would otherwise download
+ * the whole mailbox, short and cheap.
+ * <p>
+ * Policies read the voicemails through {@link VoicemailColumns}, so that the resolver can hand
+ * them the compact copy of the stores it already holds.
+ * <p>
+ * See {@link DownloadPolicies} for the standard implementations.
+ */
+public interface DownloadPolicy {
+    /**
+     * Narrows down the candidates whose content should be downloaded now.
+     *
+     * @param candidates the voicemails whose content is missing locally and would otherwise be
+     *            downloaded by the sync
+     * @param remoteMessages all the voicemails fetched from the remote store by the sync, of which
+     *            the candidates are a subset
+     * @param selected the rows of the candidates selected so far, all of them unless another
+     *            policy was applied first; the policy clears the rows it does not select
+     */
+    public void selectForDownload(VoicemailColumns candidates, VoicemailColumns remoteMessages,
+            BitSet selected);
+}
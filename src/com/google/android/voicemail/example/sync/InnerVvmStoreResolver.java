@@ -16,28 +16,36 @@
 package com.google.android.voicemail.example.sync;
 
 import com.google.android.voicemail.example.callbacks.Callback;
+import com.google.android.voicemail.example.storage.RemoteState;
+import com.google.android.voicemail.example.storage.RemoteStateJournal;
 import com.google.android.voicemail.example.sync.VvmStoreResolver.ResolvePolicy;
 
 import com.example.android.voicemail.common.core.Voicemail;
+import com.example.android.voicemail.common.core.VoicemailImpl;
+import com.example.android.voicemail.common.core.VoicemailSink;
 import com.example.android.voicemail.common.logging.Logger;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * Helper class for use by the VvmStoreResolverImpl.
  * <p>
- * One-shot class, constructed by the VvmStoreResolverImpl in response to the full resolve method,
- * and then thrown away afterwards. You should not use this class directly, and you should not
- * attempt to re-use an instance of this class. The VvmStoreResolverImpl class will construct an
+ * One-shot class, constructed by the VvmStoreResolverImpl in response to either of its resolve
+ * methods, and then thrown away afterwards. You should not use this class directly, and you should
+ * not attempt to re-use an instance of this class. The VvmStoreResolverImpl class will construct an
  * instance of this class, call the {@link #resolve()} method, and then drop the instance.
  * <p>
  * This class needs to be thread-safe, because the callbacks involved are complex and may happen on
@@ -46,7 +54,8 @@ import javax.annotation.concurrent.ThreadSafe;
  * This class is in one of the following conceptual 'states':
  * <ul>
  * <li>Constructed, but not yet started.</li>
- * <li>Started, waiting for at least one message store to return its results.</li>
+ * <li>Started, waiting for the local message store to return its results.</li>
+ * <li>Waiting for the remote message store to return its results.</li>
  * <li>Resolving the results of both fetches into actions to be performed on both stores.</li>
  * <li>Waiting for the list of actions to be completed on at least one store.</li>
  * <li>Done.</li>
@@ -56,6 +65,15 @@ import javax.annotation.concurrent.ThreadSafe;
  * will only be called after both fetches complete, the sync resolves, and the new actions are
  * successfully completed. In any other situation, onFailure will be called as soon as the failure
  * is detected.
+ * <p>
+ * If a {@link RemoteStateJournal} is supplied, voicemails whose state has not changed on either
+ * store since the last successful resolve are not passed to the resolve policy, and the journal is
+ * updated with the new state of the resolved voicemails once the actions have completed. The
+ * journal also limits what the remote store is asked for, see
+ * {@link #fetchRemoteMessages(VoicemailSnapshot)}.
+ * <p>
+ * Content downloads that the {@link DownloadPolicy} does not select are left out, so that the
+ * content of those voicemails is only fetched when a voicemail client requests it.
  */
 @ThreadSafe
 /*package*/ final class InnerVvmStoreResolver {
@@ -67,25 +85,41 @@ import javax.annotation.concurrent.ThreadSafe;
     private final VvmStore mLocalStore;
     /** The remote store holding voicemails. */
     private final VvmStore mRemoteStore;
+    /** The source data of the voicemails to resolve, or null to resolve all of them. */
+    @Nullable private final List<String> mSourceData;
     /** The resolve policy to use when handling voicemails. */
     private final ResolvePolicy mResolvePolicy;
+    /** The state of the remote voicemails left by the last resolve, or null if not kept. */
+    @Nullable private final RemoteStateJournal mJournal;
+    /** Decides which of the missing voicemail contents are downloaded now. */
+    private final DownloadPolicy mDownloadPolicy;
+    /** Receives the counters of this resolve, if it succeeds. */
+    private final Callback<SyncStatistics> mStatisticsCallback;
 
     /** Checks that we never call the resolve() method more than once, as per class contract. */
     private final AtomicBoolean mHasResolveBeenCalled;
-    /** Container for the result of fetching the local voicemails. */
-    private final AtomicReference<List<Voicemail>> mLocalResults;
-    /** Container for the result of fetching the remote voicemails. */
-    private final AtomicReference<List<Voicemail>> mRemoteResults;
 
+    /**
+     * @param sourceData the source data of the voicemails to resolve, or null for a full resolve
+     * @param journal the journal of remote state to use and update, or null to resolve all the
+     *            voicemails regardless of their previous state
+     * @param downloadPolicy selects the FETCH_CONTENT actions to perform
+     * @param statisticsCallback receives the counters of the resolve, before the callback is
+     *            notified of its success
+     */
     public InnerVvmStoreResolver(VvmStore localStore, VvmStore remoteStore,
-            VvmStoreResolver.ResolvePolicy resolvePolicy, Callback<Void> callback) {
+            @Nullable List<String> sourceData, VvmStoreResolver.ResolvePolicy resolvePolicy,
+            @Nullable RemoteStateJournal journal, DownloadPolicy downloadPolicy,
+            Callback<SyncStatistics> statisticsCallback, Callback<Void> callback) {
         mCallback = callback;
         mLocalStore = localStore;
         mRemoteStore = remoteStore;
+        mSourceData = sourceData;
         mResolvePolicy = resolvePolicy;
+        mJournal = journal;
+        mDownloadPolicy = downloadPolicy;
+        mStatisticsCallback = statisticsCallback;
         mHasResolveBeenCalled = new AtomicBoolean(false);
-        mLocalResults = new AtomicReference<List<Voicemail>>();
-        mRemoteResults = new AtomicReference<List<Voicemail>>();
     }
 
     /**
@@ -99,69 +133,126 @@ import javax.annotation.concurrent.ThreadSafe;
         if (mHasResolveBeenCalled.getAndSet(true)) {
             throw new IllegalStateException("You cannot use this class more than once.");
         }
-        AtomicInteger fetchesRemaining = new AtomicInteger(2);
-        AtomicBoolean failureReported = new AtomicBoolean(false);
-        mRemoteStore.getAllMessages(
-                new FetchCallback(mRemoteResults, fetchesRemaining, failureReported));
-        mLocalStore.getAllMessages(
-                new FetchCallback(mLocalResults, fetchesRemaining, failureReported));
+        // The local store is listed first, so that the remote store is only asked for what the
+        // local voicemails and the journal do not already tell.
+        final VoicemailSnapshot.Builder localSnapshot = VoicemailSnapshot.builder();
+        Callback<Void> localCallback = new Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                fetchRemoteMessages(localSnapshot.build());
+            }
+
+            @Override
+            public void onFailure(Exception error) {
+                mCallback.onFailure(error);
+            }
+        };
+        if (mSourceData == null) {
+            mLocalStore.getAllMessages(Collections.<String>emptySet(), localSnapshot,
+                    localCallback);
+        } else {
+            mLocalStore.getMessages(mSourceData, localSnapshot, localCallback);
+        }
     }
 
     /**
-     * The callback for a fetch of messages, either local or remote fetch.
+     * Lists the remote store, once the local store has been listed.
      * <p>
-     * This class is responsible for propagating a failure back to the original callback whilst
-     * making sure this happens at most once. It is also responsible for storing the successuful
-     * result into the container, and when the right number of successful results have happened, for
-     * proceeding with the next task (which is doing the resolve).
+     * The voicemails that the journal has recorded, and that are present locally, are known: the
+     * remote store only needs to tell their read state, since nothing else about a remote
+     * voicemail changes, and their other fields are taken from the local voicemail. The
+     * voicemails that the journal records as deleted from the remote store are not asked for at
+     * all, and resolve as missing remotely.
      */
-    private class FetchCallback implements Callback<List<Voicemail>> {
-        private final AtomicReference<List<Voicemail>> mResults;
-        private final AtomicInteger mRemaining;
-        private final AtomicBoolean mFailureReported;
-
-        /**
-         * @param results The container into which we put the results of a successful callback
-         * @param remaining The number of successful fetches remaining before we should proceed onto
-         *            the next step, i.e. resolving
-         * @param failureReported Prevents more than one failure being reported to the original
-         *            callback
-         */
-        public FetchCallback(AtomicReference<List<Voicemail>> results, AtomicInteger remaining,
-                AtomicBoolean failureReported) {
-            mResults = results;
-            mRemaining = remaining;
-            mFailureReported = failureReported;
-        }
-
-        @Override
-        public void onSuccess(List<Voicemail> result) {
-            mResults.set(result);
-            if (mRemaining.decrementAndGet() == 0) {
-                performResolve();
+    private void fetchRemoteMessages(final VoicemailSnapshot localResults) {
+        final Map<String, RemoteState> previousStates = getPreviousStates();
+        Set<String> knownSourceData = new HashSet<String>();
+        Set<String> deletedSourceData = new HashSet<String>();
+        for (int localRow = 0; localRow < localResults.size(); ++localRow) {
+            String sourceData = localResults.getSourceData(localRow);
+            RemoteState previousState = previousStates.get(sourceData);
+            if (previousState == null) {
+                continue;
+            }
+            if (previousState.isDeleted()) {
+                deletedSourceData.add(sourceData);
+            } else {
+                knownSourceData.add(sourceData);
             }
         }
+        final VoicemailSnapshot.Builder remoteSnapshot = VoicemailSnapshot.builder();
+        final CompletingSink remoteSink = new CompletingSink(remoteSnapshot, localResults);
+        Callback<Void> remoteCallback = new Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                logger.d(String.format("Took the details of %d of the remote voicemails from the "
+                        + "local store", remoteSink.getCompletedCount()));
+                performResolve(localResults, remoteSnapshot.build(), previousStates);
+            }
 
-        @Override
-        public void onFailure(Exception error) {
-            if (!mFailureReported.getAndSet(true)) {
+            @Override
+            public void onFailure(Exception error) {
                 mCallback.onFailure(error);
             }
+        };
+        if (mSourceData == null) {
+            mRemoteStore.getAllMessages(knownSourceData, remoteSink, remoteCallback);
+            return;
+        }
+        List<String> requested = new ArrayList<String>(mSourceData.size());
+        for (String sourceData : mSourceData) {
+            if (!deletedSourceData.contains(sourceData)) {
+                requested.add(sourceData);
+            }
+        }
+        if (requested.isEmpty()) {
+            remoteCallback.onSuccess(null);
+        } else {
+            mRemoteStore.getMessages(requested, remoteSink, remoteCallback);
         }
     }
 
     /**
-     * Builds a map from provider data to message for the given collection of voicemails.
+     * Hands the remote voicemails on to the snapshot, filling in the fields that the remote store
+     * left out, for the voicemails it was told were known, from the local voicemail with the same
+     * source data.
+     * <p>
+     * It is only called by the remote store, from one thread at a time.
      */
-    private static Map<String, Voicemail> buildMap(Collection<Voicemail> messages) {
-        Map<String, Voicemail> map = new HashMap<String, Voicemail>();
-        for (Voicemail message : messages) {
-            map.put(message.getSourceData(), message);
+    private static final class CompletingSink implements VoicemailSink {
+        private final VoicemailSink mSnapshot;
+        private final VoicemailSnapshot mLocalResults;
+        private int mCompletedCount;
+
+        public CompletingSink(VoicemailSink snapshot, VoicemailSnapshot localResults) {
+            mSnapshot = snapshot;
+            mLocalResults = localResults;
+        }
+
+        @Override
+        public void accept(Voicemail voicemail) {
+            int localRow = voicemail.hasTimestampMillis() ? -1
+                    : mLocalResults.indexOf(voicemail.getSourceData());
+            if (localRow < 0) {
+                mSnapshot.accept(voicemail);
+                return;
+            }
+            ++mCompletedCount;
+            mSnapshot.accept(VoicemailImpl.createEmptyBuilder()
+                    .setSourceData(voicemail.getSourceData())
+                    .setIsRead(voicemail.isRead())
+                    .setNumber(mLocalResults.getNumber(localRow))
+                    .setTimestamp(mLocalResults.getTimestampMillis(localRow))
+                    .build());
+        }
+
+        public int getCompletedCount() {
+            return mCompletedCount;
         }
-        return map;
     }
 
-    private void performResolve() {
+    private void performResolve(VoicemailSnapshot localResults, VoicemailSnapshot remoteResults,
+            Map<String, RemoteState> previousStates) {
         // Get the list of messages both locally and remotely.
         // Resolve both lists into three types of operations: a message exists only locally,
         // or a message exists only remotely, or a message exists both locally and remotely.
@@ -170,22 +261,76 @@ import javax.annotation.concurrent.ThreadSafe;
         // process.
         List<VvmStore.Action> localActions = new ArrayList<VvmStore.Action>();
         List<VvmStore.Action> remoteActions = new ArrayList<VvmStore.Action>();
-        Map<String, Voicemail> remoteMap = buildMap(mRemoteResults.get());
-        for (Voicemail localMessage : mLocalResults.get()) {
-            if (remoteMap.containsKey(localMessage.getSourceData())) {
-                Voicemail remoteMessage = remoteMap.remove(localMessage.getSourceData());
+        // The state to record in the journal for each voicemail that was resolved.
+        Map<String, RemoteState> newStates = new HashMap<String, RemoteState>();
+        int compared = 0;
+        int unchanged = 0;
+        // The remote rows matched by a local row. Voicemails are only rebuilt from the snapshots
+        // when they are passed to the resolve policy.
+        BitSet matchedRemoteRows = new BitSet(remoteResults.size());
+        for (int localRow = 0; localRow < localResults.size(); ++localRow) {
+            String sourceData = localResults.getSourceData(localRow);
+            RemoteState previousState = previousStates.get(sourceData);
+            // A voicemail deleted from the remote store by an earlier resolve is deleted locally
+            // too, even if the remote store still lists it.
+            int remoteRow = isDeleted(previousState) ? -1 : remoteResults.indexOf(sourceData);
+            if (remoteRow >= 0 && !matchedRemoteRows.get(remoteRow)) {
+                matchedRemoteRows.set(remoteRow);
+                ++compared;
+                if (isUnchanged(previousState, localResults, localRow, remoteResults, remoteRow)) {
+                    ++unchanged;
+                    continue;
+                }
+                Voicemail localMessage = localResults.getVoicemail(localRow);
+                Voicemail remoteMessage = remoteResults.getVoicemail(remoteRow);
                 mResolvePolicy.resolveBothLocalAndRemoteMessage(
                         localMessage, remoteMessage, localActions, remoteActions);
+                newStates.put(remoteMessage.getSourceData(), new RemoteState(
+                        remoteMessage.getSourceData(), remoteMessage.isRead(),
+                        localMessage.hasContent(), false));
             } else {
-                mResolvePolicy.resolveLocalOnlyMessage(localMessage, localActions, remoteActions);
+                mResolvePolicy.resolveLocalOnlyMessage(localResults.getVoicemail(localRow),
+                        localActions, remoteActions);
             }
         }
-        // Because we did a remove() from remoteMap during the loop through the list of local
-        // results, we know that remoteMap's values() contains only messages that are missing
-        // locally.
-        for (Voicemail remoteMessage : remoteMap.values()) {
+        // The remote rows that were not matched are missing locally, except for the duplicates
+        // of a source data, of which only the row returned by indexOf() counts, and the ones that
+        // an earlier resolve deleted.
+        for (int remoteRow = 0; remoteRow < remoteResults.size(); ++remoteRow) {
+            String sourceData = remoteResults.getSourceData(remoteRow);
+            if (matchedRemoteRows.get(remoteRow)
+                    || remoteResults.indexOf(sourceData) != remoteRow
+                    || isDeleted(previousStates.get(sourceData))) {
+                continue;
+            }
+            Voicemail remoteMessage = remoteResults.getVoicemail(remoteRow);
             mResolvePolicy.resolveRemoteOnlyMessage(remoteMessage, localActions, remoteActions);
+            newStates.put(remoteMessage.getSourceData(), new RemoteState(
+                    remoteMessage.getSourceData(), remoteMessage.isRead(), false, false));
         }
+        // Drop the redundant actions the policy may have emitted.
+        int emittedActions = localActions.size() + remoteActions.size();
+        localActions = ActionPlanner.compact(localActions);
+        remoteActions = ActionPlanner.compact(remoteActions);
+        // Leave the downloads the policy does not select for playback time.
+        List<VvmStore.Action> allActions = new ArrayList<VvmStore.Action>(localActions);
+        allActions.addAll(remoteActions);
+        Set<VvmStore.Action> deferredDownloads =
+                ActionPlanner.getDeferredDownloads(allActions, remoteResults, mDownloadPolicy);
+        localActions.removeAll(deferredDownloads);
+        remoteActions.removeAll(deferredDownloads);
+        // Make the newest unheard voicemails playable first.
+        localActions = ActionPlanner.prioritize(localActions);
+        remoteActions = ActionPlanner.prioritize(remoteActions);
+        applyRemoteActions(remoteActions, newStates);
+        Set<String> removedStates = getRemovedStates(previousStates.keySet(), remoteResults);
+
+        final SyncStatistics statistics = new SyncStatistics(localResults.size(),
+                remoteResults.size(), compared, unchanged, localActions.size(),
+                remoteActions.size(),
+                emittedActions - localActions.size() - remoteActions.size()
+                        - deferredDownloads.size(),
+                deferredDownloads.size());
 
         // Perform the list of actions for both stores.
         // I could optimise this to skip the call in the case that the list is empty, but this is
@@ -195,26 +340,115 @@ import javax.annotation.concurrent.ThreadSafe;
         AtomicBoolean failureReported = new AtomicBoolean(false);
         logger.d("localActions: " + localActions);
         logger.d("remoteActions: " + remoteActions);
-        mLocalStore.performActions(localActions,
-                new ActionCompletedCallback(actionsRemaining, failureReported));
-        mRemoteStore.performActions(remoteActions,
-                new ActionCompletedCallback(actionsRemaining, failureReported));
+        ActionCompletedCallback callback = new ActionCompletedCallback(actionsRemaining,
+                failureReported, newStates.values(), removedStates, statistics);
+        mLocalStore.performActions(localActions, callback);
+        mRemoteStore.performActions(remoteActions, callback);
+    }
+
+    /**
+     * Returns the state recorded by the last resolve, or an empty map if there is no journal. A
+     * targeted resolve only reads the states of the voicemails it was asked to resolve.
+     */
+    private Map<String, RemoteState> getPreviousStates() {
+        if (mJournal == null) {
+            return Collections.emptyMap();
+        }
+        return mSourceData == null ? mJournal.getAllStates() : mJournal.getStates(mSourceData);
+    }
+
+    private static boolean isDeleted(@Nullable RemoteState previousState) {
+        return previousState != null && previousState.isDeleted();
+    }
+
+    /**
+     * Returns true if a voicemail found on both stores has not changed on either of them since the
+     * last resolve, which left both stores in agreement with the previous state.
+     */
+    private static boolean isUnchanged(@Nullable RemoteState previousState,
+            VoicemailSnapshot localResults, int localRow, VoicemailSnapshot remoteResults,
+            int remoteRow) {
+        return previousState != null
+                && !previousState.isDeleted()
+                && previousState.hasContent() && localResults.hasContent(localRow)
+                && previousState.isRead() == remoteResults.isRead(remoteRow)
+                && previousState.isRead() == localResults.isRead(localRow);
+    }
+
+    /** Updates the new remote states with the effect of the actions on the remote store. */
+    private static void applyRemoteActions(List<VvmStore.Action> remoteActions,
+            Map<String, RemoteState> newStates) {
+        for (VvmStore.Action action : remoteActions) {
+            RemoteState state = newStates.get(action.getVoicemail().getSourceData());
+            if (state == null) {
+                continue;
+            }
+            switch (action.getOperation()) {
+                case MARK_AS_READ:
+                    state = new RemoteState(state.getSourceData(), true, state.hasContent(),
+                            state.isDeleted());
+                    break;
+                case DELETE:
+                    state = new RemoteState(state.getSourceData(), state.isRead(),
+                            state.hasContent(), true);
+                    break;
+                default:
+                    break;
+            }
+            newStates.put(state.getSourceData(), state);
+        }
+    }
+
+    /**
+     * Returns the source data of the previously recorded voicemails that this resolve found to be
+     * no longer on the remote store.
+     */
+    private Set<String> getRemovedStates(Set<String> previousSourceData,
+            VoicemailSnapshot remoteResults) {
+        // A targeted resolve only knows about the voicemails it was asked to resolve.
+        Collection<String> candidates = mSourceData == null ? previousSourceData : mSourceData;
+        Set<String> removed = new HashSet<String>();
+        for (String sourceData : candidates) {
+            if (previousSourceData.contains(sourceData) && remoteResults.indexOf(sourceData) < 0) {
+                removed.add(sourceData);
+            }
+        }
+        return removed;
     }
 
     private class ActionCompletedCallback implements Callback<Void> {
         private final AtomicInteger mActionsRemaining;
         private final AtomicBoolean mFailureReported;
+        private final Collection<RemoteState> mNewStates;
+        private final Collection<String> mRemovedStates;
+        private final SyncStatistics mStatistics;
 
-        public ActionCompletedCallback(AtomicInteger actionsRemaining, AtomicBoolean failureReported) {
+        public ActionCompletedCallback(AtomicInteger actionsRemaining,
+                AtomicBoolean failureReported, Collection<RemoteState> newStates,
+                Collection<String> removedStates, SyncStatistics statistics) {
             mActionsRemaining = actionsRemaining;
             mFailureReported = failureReported;
+            mNewStates = newStates;
+            mRemovedStates = removedStates;
+            mStatistics = statistics;
         }
 
         @Override
         public void onSuccess(Void result) {
             // A list of actions succeeded.
-            // If this is the last list of actions to complete, call the original callback.
+            // If this is the last list of actions to complete, record the new state and call the
+            // original callback.
             if (mActionsRemaining.decrementAndGet() == 0) {
+                if (mJournal != null) {
+                    try {
+                        mJournal.update(mNewStates, mRemovedStates);
+                    } catch (RuntimeException e) {
+                        // The next resolve will simply not skip any voicemail.
+                        logger.e("Failed to update the remote state journal", e);
+                    }
+                }
+                logger.d("Resolve completed: " + mStatistics);
+                mStatisticsCallback.onSuccess(mStatistics);
                 mCallback.onSuccess(null);
             }
         }
@@ -18,15 +18,27 @@ package com.google.android.voicemail.example.sync;
 import com.google.android.voicemail.example.callbacks.Callback;
 import com.google.android.voicemail.example.core.VoicemailIntentUtils;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.Context;
 import android.content.Intent;
-import android.net.Uri;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.provider.VoicemailContract.Voicemails;
 
 import com.example.android.voicemail.common.core.Voicemail;
 import com.example.android.voicemail.common.core.VoicemailImpl;
 import com.example.android.voicemail.common.core.VoicemailProviderHelper;
+import com.example.android.voicemail.common.core.VoicemailSink;
+import com.example.android.voicemail.common.logging.Logger;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executor;
 
 import javax.annotation.concurrent.ThreadSafe;
@@ -36,9 +48,16 @@ import javax.annotation.concurrent.ThreadSafe;
  */
 @ThreadSafe
 public class LocalVvmStore implements VvmStore {
+    private static final Logger logger = Logger.getLogger(LocalVvmStore.class);
+
     private final Executor mExecutor;
     private final VoicemailProviderHelper mVoicemailProviderHelper;
     private final Context mContext; // For sending fetch intent broadcast.
+    /**
+     * Serializes the batches, so that no other batch inserts a voicemail between the check for
+     * existing voicemails of a batch and the moment it is applied.
+     */
+    private final Object mBatchLock = new Object();
 
     public LocalVvmStore(Executor executor, VoicemailProviderHelper voicemailProviderHelper,
             Context context) {
@@ -48,57 +67,186 @@ public class LocalVvmStore implements VvmStore {
     }
 
     @Override
-    public void getAllMessages(final Callback<List<Voicemail>> callback) {
+    public void getAllMessages(Set<String> knownSourceData, final VoicemailSink sink,
+            final Callback<Void> callback) {
+        // Reading from the provider is cheap, the voicemails are always read in full.
         mExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                callback.onSuccess(mVoicemailProviderHelper.getAllVoicemails());
+                mVoicemailProviderHelper.getAllVoicemails(sink);
+                callback.onSuccess(null);
+            }
+        });
+    }
+
+    @Override
+    public void getMessages(final List<String> sourceData, final VoicemailSink sink,
+            final Callback<Void> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mVoicemailProviderHelper.findVoicemailsBySourceData(sourceData, sink);
+                callback.onSuccess(null);
             }
         });
     }
 
     @Override
     public void performActions(final List<VvmStore.Action> actions, final Callback<Void> callback) {
-        // TODO: 4. Much later down the line, we can optimise this quite heavily, we think.
-        // We should group the operations together by the action (deletes, inserts etc).
-        // Then we should be able to perform bulk operations locally using the content provider
-        // directly.
         mExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                for (VvmStore.Action action : actions) {
-                    performSingleAction(action.getOperation(), action.getVoicemail());
+                try {
+                    applyActions(actions);
+                } catch (Exception e) {
+                    callback.onFailure(e);
+                    return;
                 }
                 callback.onSuccess(null);
             }
         });
     }
 
-    private void performSingleAction(VvmStore.Operation operation, Voicemail message) {
-        switch (operation) {
-            case INSERT: {
-                Uri newMsgUri = mVoicemailProviderHelper.insert(message);
-                // Send intent to fetch the content of the voicemail.
-                Intent fetchIntent = new Intent(OmtpVvmStore.FETCH_INTENT, newMsgUri);
-                VoicemailIntentUtils.storeIdentifierInIntent(fetchIntent, message);
-                mContext.sendBroadcast(fetchIntent);
-                break;
+    /**
+     * Performs a list of actions synchronously, and returns the result of each of them.
+     * <p>
+     * The provider operations of the actions are applied in a single batch, so that the content
+     * provider handles them in one transaction rather than one per voicemail. A FETCH_CONTENT
+     * action requests the content of the voicemail from its source: once the batch has been
+     * applied, a single fetch intent is sent for all of them, so that content is only fetched for
+     * voicemails that have been inserted.
+     * <p>
+     * Both the batch and the fetch intent keep the order of the given actions, which the resolver
+     * has put in priority order, see {@link ActionPlanner#prioritize(List)}.
+     * <p>
+     * Inserts of voicemails that are already in the provider, for instance because they were
+     * inserted concurrently on receipt of a sync SMS, are dropped and have no result, and so are
+     * the FETCH_CONTENT actions on the same voicemails. Batches are applied one at a time, so the
+     * check cannot miss a voicemail inserted by another batch of this store.
+     *
+     * @return the result of each action in the batch, in the order of the batch; FETCH_CONTENT
+     *         actions have no result
+     * @throws RemoteException if the content provider cannot be reached
+     * @throws OperationApplicationException if any of the operations fails, in which case the
+     *             following operations are not applied and no fetch intent is sent
+     */
+    public Map<VvmStore.Action, ContentProviderResult> applyActions(List<VvmStore.Action> actions)
+            throws RemoteException, OperationApplicationException {
+        List<VvmStore.Action> remaining;
+        Map<VvmStore.Action, ContentProviderResult> results;
+        synchronized (mBatchLock) {
+            remaining = dropExistingInserts(actions);
+            results = applyBatch(remaining);
+        }
+        List<VvmStore.Action> fetches = new ArrayList<VvmStore.Action>();
+        for (VvmStore.Action action : remaining) {
+            if (action.getOperation() == VvmStore.Operation.FETCH_CONTENT) {
+                fetches.add(action);
             }
+        }
+        if (!fetches.isEmpty()) {
+            requestFetch(fetches);
+        }
+        return results;
+    }
+
+    /**
+     * Applies the provider operations of the given actions in a single batch, in the order of the
+     * actions, skipping the FETCH_CONTENT actions.
+     */
+    private Map<VvmStore.Action, ContentProviderResult> applyBatch(List<VvmStore.Action> actions)
+            throws RemoteException, OperationApplicationException {
+        List<VvmStore.Action> batchActions = new ArrayList<VvmStore.Action>(actions.size());
+        ArrayList<ContentProviderOperation> batch =
+                new ArrayList<ContentProviderOperation>(actions.size());
+        for (VvmStore.Action action : actions) {
+            if (action.getOperation() == VvmStore.Operation.FETCH_CONTENT) {
+                continue;
+            }
+            batch.add(createProviderOperation(action.getOperation(), action.getVoicemail()));
+            batchActions.add(action);
+        }
+        Map<VvmStore.Action, ContentProviderResult> results =
+                new LinkedHashMap<VvmStore.Action, ContentProviderResult>();
+        if (!batch.isEmpty()) {
+            ContentProviderResult[] batchResults = mVoicemailProviderHelper.applyBatch(batch);
+            for (int i = 0; i < batchResults.length; ++i) {
+                results.put(batchActions.get(i), batchResults[i]);
+            }
+            logger.d(String.format("Applied batch of %d local actions", batchResults.length));
+        }
+        return results;
+    }
+
+    /**
+     * Returns the given actions, in the same order, without the INSERT and FETCH_CONTENT actions
+     * whose voicemail source data is already present in the content provider as the result of an
+     * earlier insert.
+     */
+    private List<VvmStore.Action> dropExistingInserts(List<VvmStore.Action> actions) {
+        List<String> sourceData = new ArrayList<String>();
+        for (VvmStore.Action action : actions) {
+            if (action.getOperation() == VvmStore.Operation.INSERT) {
+                sourceData.add(action.getVoicemail().getSourceData());
+            }
+        }
+        if (sourceData.isEmpty()) {
+            return actions;
+        }
+        final Set<String> existing = new HashSet<String>();
+        mVoicemailProviderHelper.findVoicemailsBySourceData(sourceData, new VoicemailSink() {
+            @Override
+            public void accept(Voicemail voicemail) {
+                existing.add(voicemail.getSourceData());
+            }
+        });
+        if (existing.isEmpty()) {
+            return actions;
+        }
+        List<VvmStore.Action> remaining = new ArrayList<VvmStore.Action>(actions.size());
+        int dropped = 0;
+        for (VvmStore.Action action : actions) {
+            // Whoever inserted them has requested their content already.
+            if ((action.getOperation() == VvmStore.Operation.INSERT
+                    || action.getOperation() == VvmStore.Operation.FETCH_CONTENT)
+                    && existing.contains(action.getVoicemail().getSourceData())) {
+                ++dropped;
+            } else {
+                remaining.add(action);
+            }
+        }
+        logger.d(String.format("Dropped %d inserts and fetches of existing voicemails", dropped));
+        return remaining;
+    }
+
+    private ContentProviderOperation createProviderOperation(VvmStore.Operation operation,
+            Voicemail message) {
+        switch (operation) {
+            case INSERT:
+                return mVoicemailProviderHelper.newInsertOperation(message);
             case DELETE:
-                // There is no delete in VoicemailProviderHelper, so use our own implementation.
-                delete(message.getUri());
-                break;
+                return mVoicemailProviderHelper.newDeleteOperation(message.getUri());
             case MARK_AS_READ:
-                mVoicemailProviderHelper.update(message.getUri(),
+                return mVoicemailProviderHelper.newUpdateOperation(message.getUri(),
                         VoicemailImpl.createEmptyBuilder().setIsRead(true).build());
-                break;
             case FETCH_CONTENT:
-                throw new UnsupportedOperationException("Local store cannot FETCH_CONTENT");
+                throw new UnsupportedOperationException(
+                        "FETCH_CONTENT is not a provider operation");
         }
+        // Should never reach here.
+        throw new IllegalArgumentException("Unknown operation: " + operation);
     }
 
-    private int delete(Uri uri) {
-        return mContext.getContentResolver().delete(uri, null, null);
+    /** Sends a single intent to fetch the content of the voicemails of all the given actions. */
+    private void requestFetch(List<VvmStore.Action> fetches) {
+        List<Voicemail> messages = new ArrayList<Voicemail>(fetches.size());
+        for (VvmStore.Action action : fetches) {
+            messages.add(action.getVoicemail());
+        }
+        Intent fetchIntent = new Intent(OmtpVvmStore.FETCH_INTENT,
+                Voicemails.buildSourceUri(mContext.getPackageName()));
+        VoicemailIntentUtils.storeIdentifiersInIntent(fetchIntent, messages);
+        VoicemailIntentUtils.storeRequestTimeInIntent(fetchIntent, SystemClock.elapsedRealtime());
+        mContext.sendBroadcast(fetchIntent);
     }
-
 }
@@ -23,14 +23,20 @@ import android.content.Context;
 import android.content.Intent;
 
 import com.example.android.voicemail.common.core.Voicemail;
+import com.example.android.voicemail.common.core.VoicemailSink;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Executor;
 
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * VvmStore implementation backed by an OMTP voicemail service.
+ * <p>
+ * MARK_AS_READ and DELETE actions are recorded in a {@link RemoteOperationQueue} and then sent to
+ * the server in the background, so they are not lost if the server cannot be reached.
  */
 @ThreadSafe
 public class OmtpVvmStore implements VvmStore {
@@ -40,12 +46,14 @@ public class OmtpVvmStore implements VvmStore {
     private final VoicemailFetcherFactory mVoicemailFetcherFactory;
     private final Executor mExecutor;
     private final Context mContext;
+    private final RemoteOperationQueue mOperationQueue;
 
     public OmtpVvmStore(VoicemailFetcherFactory voicemailFetcherFactory,
-            Executor executor, Context context) {
+            Executor executor, Context context, RemoteOperationQueue operationQueue) {
         mVoicemailFetcherFactory = voicemailFetcherFactory;
         mExecutor = executor;
         mContext = context;
+        mOperationQueue = operationQueue;
     }
 
     @Override
@@ -53,30 +61,40 @@ public class OmtpVvmStore implements VvmStore {
         mExecutor.execute(new Runnable() {
             @Override
             public void run() {
+                List<VvmStore.Action> queuedActions = new ArrayList<VvmStore.Action>();
                 for (VvmStore.Action action : actions) {
-                    performSingleAction(action.getOperation(), action.getVoicemail());
+                    switch (action.getOperation()) {
+                        case DELETE:
+                        case MARK_AS_READ:
+                            queuedActions.add(action);
+                            break;
+                        default:
+                            performSingleAction(action.getOperation(), action.getVoicemail());
+                            break;
+                    }
                 }
+                try {
+                    mOperationQueue.enqueue(queuedActions);
+                } catch (RuntimeException e) {
+                    callback.onFailure(e);
+                    return;
+                }
+                // The actions are durable from now on, a failed flush is retried later.
+                mOperationQueue.flush(Callbacks.<Void>emptyCallback());
                 callback.onSuccess(null);
             }
         });
     }
 
     private void performSingleAction(Operation operation, Voicemail message) {
+        // DELETE and MARK_AS_READ go through the operation queue instead.
         switch (operation) {
-            case DELETE:
-                 mVoicemailFetcherFactory.createVoicemailFetcher().markMessagesAsDeleted(
-                         Callbacks.<Void>emptyCallback(), message);
-                break;
             case FETCH_CONTENT: {
                 Intent intent = new Intent(OmtpVvmStore.FETCH_INTENT, message.getUri());
                 VoicemailIntentUtils.storeIdentifierInIntent(intent, message);
                 mContext.sendBroadcast(intent);
                 break;
             }
-            case MARK_AS_READ:
-                mVoicemailFetcherFactory.createVoicemailFetcher().markMessagesAsRead(
-                        Callbacks.<Void>emptyCallback(), message);
-                break;
             case INSERT:
                 // Inserting into a remote OMTP store isn't supported.
                 throw new UnsupportedOperationException(
@@ -85,7 +103,16 @@ public class OmtpVvmStore implements VvmStore {
     }
 
     @Override
-    public void getAllMessages(final Callback<List<Voicemail>> callback) {
-        mVoicemailFetcherFactory.createVoicemailFetcher().fetchAllVoicemails(callback);
+    public void getAllMessages(Set<String> knownSourceData, VoicemailSink sink,
+            Callback<Void> callback) {
+        mVoicemailFetcherFactory.createVoicemailFetcher().fetchAllVoicemails(knownSourceData, sink,
+                callback);
+    }
+
+    @Override
+    public void getMessages(List<String> sourceData, VoicemailSink sink,
+            Callback<Void> callback) {
+        mVoicemailFetcherFactory.createVoicemailFetcher().fetchVoicemails(sourceData, sink,
+                callback);
     }
 }
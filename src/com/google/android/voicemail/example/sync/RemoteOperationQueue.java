@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sync;
+
+import com.google.android.voicemail.example.callbacks.Callback;
+import com.google.android.voicemail.example.storage.RemoteOutbox;
+import com.google.android.voicemail.example.storage.RemoteOutbox.PendingOperation;
+
+import com.example.android.voicemail.common.core.Voicemail;
+import com.example.android.voicemail.common.core.VoicemailImpl;
+import com.example.android.voicemail.common.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Write-behind queue for the MARK_AS_READ and DELETE operations on the remote store.
+ * <p>
+ * Operations are first recorded in a {@link RemoteOutbox}, and only removed from it once the server
+ * has acknowledged them. Each flush sends all the pending operations of a kind in a single IMAP
+ * command, so operations that failed while the network was down are not lost, and do not need a
+ * full sync to be derived again. The queue should be flushed whenever connectivity is restored.
+ */
+@ThreadSafe
+public class RemoteOperationQueue {
+    private static final Logger logger = Logger.getLogger(RemoteOperationQueue.class);
+
+    private final RemoteOutbox mOutbox;
+    private final VoicemailFetcherFactory mVoicemailFetcherFactory;
+    private final Executor mExecutor;
+
+    public RemoteOperationQueue(RemoteOutbox outbox,
+            VoicemailFetcherFactory voicemailFetcherFactory, Executor executor) {
+        mOutbox = outbox;
+        mVoicemailFetcherFactory = voicemailFetcherFactory;
+        mExecutor = executor;
+    }
+
+    /**
+     * Records the given actions in the outbox, synchronously.
+     *
+     * @throws IllegalArgumentException if any of the actions is neither a MARK_AS_READ nor a
+     *             DELETE
+     */
+    public void enqueue(List<VvmStore.Action> actions) {
+        Map<PendingOperation, List<String>> sourceDataByOperation =
+                new EnumMap<PendingOperation, List<String>>(PendingOperation.class);
+        for (VvmStore.Action action : actions) {
+            PendingOperation operation = toPendingOperation(action.getOperation());
+            List<String> sourceData = sourceDataByOperation.get(operation);
+            if (sourceData == null) {
+                sourceData = new ArrayList<String>();
+                sourceDataByOperation.put(operation, sourceData);
+            }
+            sourceData.add(action.getVoicemail().getSourceData());
+        }
+        for (Map.Entry<PendingOperation, List<String>> entry
+                : sourceDataByOperation.entrySet()) {
+            mOutbox.enqueue(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Sends all the pending operations to the server, in the background.
+     * <p>
+     * The callback is notified of success once every pending operation has been acknowledged, and
+     * of failure if any of them has not, in which case it stays in the outbox for the next flush.
+     */
+    public void flush(final Callback<Void> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushPendingOperations(callback);
+                } catch (RuntimeException e) {
+                    callback.onFailure(e);
+                }
+            }
+        });
+    }
+
+    private void flushPendingOperations(Callback<Void> callback) {
+        Map<PendingOperation, List<String>> sourceDataByOperation =
+                new EnumMap<PendingOperation, List<String>>(PendingOperation.class);
+        for (Map.Entry<String, PendingOperation> entry : mOutbox.getAll().entrySet()) {
+            List<String> sourceData = sourceDataByOperation.get(entry.getValue());
+            if (sourceData == null) {
+                sourceData = new ArrayList<String>();
+                sourceDataByOperation.put(entry.getValue(), sourceData);
+            }
+            sourceData.add(entry.getKey());
+        }
+        if (sourceDataByOperation.isEmpty()) {
+            callback.onSuccess(null);
+            return;
+        }
+        AtomicInteger commandsRemaining = new AtomicInteger(sourceDataByOperation.size());
+        AtomicBoolean failureReported = new AtomicBoolean(false);
+        for (Map.Entry<PendingOperation, List<String>> entry
+                : sourceDataByOperation.entrySet()) {
+            PendingOperation operation = entry.getKey();
+            List<String> sourceData = entry.getValue();
+            logger.d(String.format("Flushing %s of %d voicemails", operation, sourceData.size()));
+            Callback<Void> commandCallback = new CommandCompletedCallback(operation, sourceData,
+                    commandsRemaining, failureReported, callback);
+            Voicemail[] voicemails = toVoicemails(sourceData);
+            switch (operation) {
+                case MARK_AS_READ:
+                    mVoicemailFetcherFactory.createVoicemailFetcher().markMessagesAsRead(
+                            commandCallback, voicemails);
+                    break;
+                case DELETE:
+                    mVoicemailFetcherFactory.createVoicemailFetcher().markMessagesAsDeleted(
+                            commandCallback, voicemails);
+                    break;
+            }
+        }
+    }
+
+    private static PendingOperation toPendingOperation(VvmStore.Operation operation) {
+        switch (operation) {
+            case MARK_AS_READ:
+                return PendingOperation.MARK_AS_READ;
+            case DELETE:
+                return PendingOperation.DELETE;
+            default:
+                throw new IllegalArgumentException("Cannot queue operation: " + operation);
+        }
+    }
+
+    /** Returns voicemails carrying only the given source data, which is all the server needs. */
+    private static Voicemail[] toVoicemails(List<String> sourceData) {
+        Voicemail[] voicemails = new Voicemail[sourceData.size()];
+        for (int i = 0; i < voicemails.length; ++i) {
+            voicemails[i] =
+                    VoicemailImpl.createEmptyBuilder().setSourceData(sourceData.get(i)).build();
+        }
+        return voicemails;
+    }
+
+    /**
+     * Removes the operations of one command from the outbox once the server has acknowledged them,
+     * and notifies the flush callback once all the commands of the flush have completed.
+     */
+    private class CommandCompletedCallback implements Callback<Void> {
+        private final PendingOperation mOperation;
+        private final List<String> mSourceData;
+        private final AtomicInteger mCommandsRemaining;
+        private final AtomicBoolean mFailureReported;
+        private final Callback<Void> mCallback;
+
+        public CommandCompletedCallback(PendingOperation operation, List<String> sourceData,
+                AtomicInteger commandsRemaining, AtomicBoolean failureReported,
+                Callback<Void> callback) {
+            mOperation = operation;
+            mSourceData = sourceData;
+            mCommandsRemaining = commandsRemaining;
+            mFailureReported = failureReported;
+            mCallback = callback;
+        }
+
+        @Override
+        public void onSuccess(Void result) {
+            try {
+                mOutbox.remove(mOperation, mSourceData);
+            } catch (RuntimeException e) {
+                // The operations will be sent again by the next flush, which is harmless.
+                onFailure(e);
+                return;
+            }
+            if (mCommandsRemaining.decrementAndGet() == 0 && !mFailureReported.get()) {
+                mCallback.onSuccess(null);
+            }
+        }
+
+        @Override
+        public void onFailure(Exception error) {
+            logger.w(String.format("Failed to flush %s of %d voicemails, keeping them queued",
+                    mOperation, mSourceData.size()));
+            if (!mFailureReported.getAndSet(true)) {
+                mCallback.onFailure(error);
+            }
+        }
+    }
+}
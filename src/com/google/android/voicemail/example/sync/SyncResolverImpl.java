@@ -55,8 +55,7 @@ public class SyncResolverImpl implements SyncResolver {
             callback.onSuccess(null);
             return;
         }
-        // TODO: For now a request to sync single message results in full sync. Change this to
-        // resolve only the target messages when VvmStoreResolver supports this functionality.
-        mResolver.resolveFullSync(mLocalStore, mRemoteStore, mResolvePolicy, callback);
+        mResolver.resolveSpecificMessages(mLocalStore, mRemoteStore, uids, mResolvePolicy,
+                callback);
     }
 }
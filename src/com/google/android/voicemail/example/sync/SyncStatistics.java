@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sync;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Counters describing the work done by a single resolve between two {@link VvmStore}s.
+ */
+@Immutable
+public class SyncStatistics {
+    private final int mLocalMessages;
+    private final int mRemoteMessages;
+    private final int mComparedMessages;
+    private final int mUnchangedMessages;
+    private final int mLocalActions;
+    private final int mRemoteActions;
+    private final int mDroppedActions;
+    private final int mDeferredDownloads;
+
+    /**
+     * @param localMessages the number of voicemails fetched from the local store
+     * @param remoteMessages the number of voicemails fetched from the remote store
+     * @param comparedMessages the number of voicemails found on both stores
+     * @param unchangedMessages the number of voicemails found on both stores that had not changed
+     *            since the last sync, and were therefore not passed to the resolve policy
+     * @param localActions the number of actions performed on the local store
+     * @param remoteActions the number of actions performed on the remote store
+     * @param droppedActions the number of actions emitted by the resolve policy that were found to
+     *            be redundant and were not performed
+     * @param deferredDownloads the number of content downloads that the download policy left out
+     *            of the sync, until a voicemail client requests them
+     */
+    public SyncStatistics(int localMessages, int remoteMessages, int comparedMessages,
+            int unchangedMessages, int localActions, int remoteActions, int droppedActions,
+            int deferredDownloads) {
+        mLocalMessages = localMessages;
+        mRemoteMessages = remoteMessages;
+        mComparedMessages = comparedMessages;
+        mUnchangedMessages = unchangedMessages;
+        mLocalActions = localActions;
+        mRemoteActions = remoteActions;
+        mDroppedActions = droppedActions;
+        mDeferredDownloads = deferredDownloads;
+    }
+
+    public int getLocalMessages() {
+        return mLocalMessages;
+    }
+
+    public int getRemoteMessages() {
+        return mRemoteMessages;
+    }
+
+    public int getComparedMessages() {
+        return mComparedMessages;
+    }
+
+    public int getUnchangedMessages() {
+        return mUnchangedMessages;
+    }
+
+    public int getLocalActions() {
+        return mLocalActions;
+    }
+
+    public int getRemoteActions() {
+        return mRemoteActions;
+    }
+
+    public int getDroppedActions() {
+        return mDroppedActions;
+    }
+
+    public int getDeferredDownloads() {
+        return mDeferredDownloads;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncStatistics [mLocalMessages=" + mLocalMessages
+                + ", mRemoteMessages=" + mRemoteMessages
+                + ", mComparedMessages=" + mComparedMessages
+                + ", mUnchangedMessages=" + mUnchangedMessages
+                + ", mLocalActions=" + mLocalActions
+                + ", mRemoteActions=" + mRemoteActions
+                + ", mDroppedActions=" + mDroppedActions
+                + ", mDeferredDownloads=" + mDeferredDownloads + "]";
+    }
+}
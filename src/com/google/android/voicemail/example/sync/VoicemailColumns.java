@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sync;
+
+/**
+ * Read-only access, by row, to the fields of a list of voicemails that a {@link DownloadPolicy}
+ * decides on, so that the rows do not have to be built into
+ * {@link com.example.android.voicemail.common.core.Voicemail} objects.
+ */
+public interface VoicemailColumns {
+    /** Returns the number of rows. */
+    public int size();
+
+    /** Returns the timestamp of the voicemail in the given row, or 0 if not known. */
+    public long getTimestampMillis(int row);
+
+    /** Returns the duration in seconds of the voicemail in the given row, or 0 if not known. */
+    public long getDuration(int row);
+
+    /** Returns true if the voicemail in the given row is known to be read. */
+    public boolean isRead(int row);
+}
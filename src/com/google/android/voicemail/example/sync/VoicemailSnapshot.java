@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.voicemail.example.sync;
+
+import android.net.Uri;
+
+import com.example.android.voicemail.common.core.Voicemail;
+import com.example.android.voicemail.common.core.VoicemailImpl;
+import com.example.android.voicemail.common.core.VoicemailSink;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A compact, column-oriented copy of the voicemails of a store, used by the resolver to hold the
+ * contents of a store while it compares them.
+ * <p>
+ * Instead of one {@link VoicemailImpl} per voicemail, with its boxed fields and its {@link Uri},
+ * each field is kept in an array indexed by row: primitive arrays for the numeric fields, a single
+ * {@link BitSet} for the boolean ones, and strings for the others, of which the repeated ones, such
+ * as the source package, are only held once. Rows are looked up by source data through a sorted
+ * index rather than a hash map.
+ * <p>
+ * A snapshot is filled in by a {@link Builder}, which the stores hand each voicemail to as it is
+ * read, so the voicemails of a store are never all held as objects at once.
+ * {@link #getVoicemail(int)} rebuilds the full voicemail of a row, which should only be done for
+ * the rows that are handed to the resolve policy. Download policies read the columns directly.
+ */
+@Immutable
+/*package*/ final class VoicemailSnapshot implements VoicemailColumns {
+    // The boolean fields of each row, stored at (row * FLAG_COUNT + flag) in mFlags.
+    private static final int HAS_ID = 0;
+    private static final int HAS_TIMESTAMP = 1;
+    private static final int HAS_DURATION = 2;
+    private static final int HAS_READ = 3;
+    private static final int IS_READ = 4;
+    private static final int HAS_CONTENT = 5;
+    private static final int FLAG_COUNT = 6;
+
+    /** Orders source data with null first, as the stores do not guarantee it is set. */
+    private static final Comparator<String> SOURCE_DATA_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String first, String second) {
+            if (first == null) {
+                return second == null ? 0 : -1;
+            }
+            return second == null ? 1 : first.compareTo(second);
+        }
+    };
+
+    private final int mSize;
+    private final long[] mIds;
+    private final long[] mTimestamps;
+    private final long[] mDurations;
+    private final BitSet mFlags;
+    private final String[] mNumbers;
+    private final String[] mSourceData;
+    private final String[] mSourcePackages;
+    /** The uris as strings, which are much smaller than the parsed {@link Uri} objects. */
+    private final String[] mUris;
+    /** The rows ordered by source data, rows with equal source data in their original order. */
+    private final int[] mSourceDataIndex;
+
+    private VoicemailSnapshot(Builder builder) {
+        mSize = builder.mSize;
+        // Trim the columns, which the builder grows ahead of the rows.
+        mIds = Arrays.copyOf(builder.mIds, mSize);
+        mTimestamps = Arrays.copyOf(builder.mTimestamps, mSize);
+        mDurations = Arrays.copyOf(builder.mDurations, mSize);
+        mFlags = (BitSet) builder.mFlags.clone();
+        mNumbers = Arrays.copyOf(builder.mNumbers, mSize);
+        mSourceData = Arrays.copyOf(builder.mSourceData, mSize);
+        mSourcePackages = Arrays.copyOf(builder.mSourcePackages, mSize);
+        mUris = Arrays.copyOf(builder.mUris, mSize);
+        mSourceDataIndex = buildSourceDataIndex(mSourceData);
+    }
+
+    /** Returns a builder for a new snapshot, initially empty. */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Fills in a snapshot with the voicemails it is handed, copying the fields of each of them into
+     * the columns so that the voicemail itself can be discarded straight away.
+     * <p>
+     * Repeated strings are only held once, through a map that is only kept by the builder.
+     */
+    @NotThreadSafe
+    public static final class Builder implements VoicemailSink {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private int mSize;
+        private long[] mIds = new long[INITIAL_CAPACITY];
+        private long[] mTimestamps = new long[INITIAL_CAPACITY];
+        private long[] mDurations = new long[INITIAL_CAPACITY];
+        private final BitSet mFlags = new BitSet(INITIAL_CAPACITY * FLAG_COUNT);
+        private String[] mNumbers = new String[INITIAL_CAPACITY];
+        private String[] mSourceData = new String[INITIAL_CAPACITY];
+        private String[] mSourcePackages = new String[INITIAL_CAPACITY];
+        private String[] mUris = new String[INITIAL_CAPACITY];
+        /** The canonical instance of each number and source package seen so far. */
+        private final Map<String, String> mStrings = new HashMap<String, String>();
+
+        private Builder() {
+        }
+
+        @Override
+        public void accept(Voicemail voicemail) {
+            if (mSize == mIds.length) {
+                grow();
+            }
+            int row = mSize++;
+            mIds[row] = voicemail.getId();
+            mTimestamps[row] = voicemail.getTimestampMillis();
+            mDurations[row] = voicemail.getDuration();
+            setFlag(row, HAS_ID, voicemail.hasId());
+            setFlag(row, HAS_TIMESTAMP, voicemail.hasTimestampMillis());
+            setFlag(row, HAS_DURATION, voicemail.hasDuration());
+            setFlag(row, HAS_READ, voicemail.hasRead());
+            setFlag(row, IS_READ, voicemail.isRead());
+            setFlag(row, HAS_CONTENT, voicemail.hasContent());
+            mNumbers[row] = dedupe(voicemail.getNumber());
+            // Source data are unique within a store, there is nothing to share.
+            mSourceData[row] = voicemail.getSourceData();
+            mSourcePackages[row] = dedupe(voicemail.getSourcePackage());
+            mUris[row] = voicemail.hasUri() ? voicemail.getUri().toString() : null;
+        }
+
+        /** Builds the snapshot of the voicemails handed so far. */
+        public VoicemailSnapshot build() {
+            return new VoicemailSnapshot(this);
+        }
+
+        private void grow() {
+            int capacity = mIds.length * 2;
+            mIds = Arrays.copyOf(mIds, capacity);
+            mTimestamps = Arrays.copyOf(mTimestamps, capacity);
+            mDurations = Arrays.copyOf(mDurations, capacity);
+            mNumbers = Arrays.copyOf(mNumbers, capacity);
+            mSourceData = Arrays.copyOf(mSourceData, capacity);
+            mSourcePackages = Arrays.copyOf(mSourcePackages, capacity);
+            mUris = Arrays.copyOf(mUris, capacity);
+        }
+
+        private void setFlag(int row, int flag, boolean value) {
+            if (value) {
+                mFlags.set(row * FLAG_COUNT + flag);
+            }
+        }
+
+        @Nullable
+        private String dedupe(@Nullable String value) {
+            if (value == null) {
+                return null;
+            }
+            String canonical = mStrings.get(value);
+            if (canonical == null) {
+                mStrings.put(value, value);
+                canonical = value;
+            }
+            return canonical;
+        }
+    }
+
+    private static int[] buildSourceDataIndex(final String[] sourceData) {
+        // There is no primitive sort with a comparator, so sort boxed rows once.
+        Integer[] rows = new Integer[sourceData.length];
+        for (int row = 0; row < rows.length; ++row) {
+            rows[row] = row;
+        }
+        // The sort is stable, so rows with equal source data keep their order.
+        Arrays.sort(rows, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return SOURCE_DATA_ORDER.compare(sourceData[first], sourceData[second]);
+            }
+        });
+        int[] index = new int[rows.length];
+        for (int i = 0; i < index.length; ++i) {
+            index[i] = rows[i];
+        }
+        return index;
+    }
+
+    private boolean getFlag(int row, int flag) {
+        return mFlags.get(row * FLAG_COUNT + flag);
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Nullable
+    public String getSourceData(int row) {
+        return mSourceData[row];
+    }
+
+    @Nullable
+    public String getNumber(int row) {
+        return mNumbers[row];
+    }
+
+    @Override
+    public long getTimestampMillis(int row) {
+        return mTimestamps[row];
+    }
+
+    @Override
+    public long getDuration(int row) {
+        return getFlag(row, HAS_DURATION) ? mDurations[row] : 0;
+    }
+
+    @Override
+    public boolean isRead(int row) {
+        return getFlag(row, IS_READ);
+    }
+
+    public boolean hasContent(int row) {
+        return getFlag(row, HAS_CONTENT);
+    }
+    /**
+     * Returns the row holding the voicemail with the given source data, or -1 if there is none.
+     * <p>
+     * If several rows have the same source data, the last of them is returned, so that a snapshot
+     * resolves duplicates the same way as a map filled in row order would.
+     */
+    public int indexOf(@Nullable String sourceData) {
+        int low = 0;
+        int high = mSize;
+        // Find the first position whose source data is greater than the one looked for.
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (SOURCE_DATA_ORDER.compare(mSourceData[mSourceDataIndex[middle]], sourceData) > 0) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        if (low > 0 && SOURCE_DATA_ORDER.compare(
+                mSourceData[mSourceDataIndex[low - 1]], sourceData) == 0) {
+            return mSourceDataIndex[low - 1];
+        }
+        return -1;
+    }
+
+    /** Rebuilds the full voicemail held in the given row. */
+    public Voicemail getVoicemail(int row) {
+        VoicemailImpl.Builder builder = VoicemailImpl.createEmptyBuilder()
+                .setNumber(mNumbers[row])
+                .setSourcePackage(mSourcePackages[row])
+                .setSourceData(mSourceData[row])
+                .setHasContent(getFlag(row, HAS_CONTENT));
+        if (getFlag(row, HAS_ID)) {
+            builder.setId(mIds[row]);
+        }
+        if (getFlag(row, HAS_TIMESTAMP)) {
+            builder.setTimestamp(mTimestamps[row]);
+        }
+        if (getFlag(row, HAS_DURATION)) {
+            builder.setDuration(mDurations[row]);
+        }
+        if (getFlag(row, HAS_READ)) {
+            builder.setIsRead(getFlag(row, IS_READ));
+        }
+        if (mUris[row] != null) {
+            builder.setUri(Uri.parse(mUris[row]));
+        }
+        return builder.build();
+    }
+}
@@ -18,8 +18,10 @@ package com.google.android.voicemail.example.sync;
 import com.google.android.voicemail.example.callbacks.Callback;
 
 import com.example.android.voicemail.common.core.Voicemail;
+import com.example.android.voicemail.common.core.VoicemailSink;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * Abstraction for communicating with a service that stores voicemail messages.
@@ -39,9 +41,28 @@ import java.util.List;
  */
 public interface VvmStore {
     /**
-     * Fetches all the voicemails contained by this store.
+     * Fetches all the voicemails contained by this store, handing each of them to the sink as it
+     * is read. The callback is notified once all of them have been handed.
+     * <p>
+     * A store for which reading a voicemail in full is costly may only read the read state of the
+     * voicemails whose source data is known: the voicemails handed for them may only have their
+     * source data and read state set.
+     *
+     * @param knownSourceData the source data of the voicemails whose other fields the caller
+     *            already has
+     */
+    public void getAllMessages(Set<String> knownSourceData, VoicemailSink sink,
+            Callback<Void> callback);
+
+    /**
+     * Fetches the voicemails contained by this store whose source data is one of the given values,
+     * handing each of them to the sink as it is read. The callback is notified once all of them
+     * have been handed.
+     * <p>
+     * Values that do not match any voicemail are ignored.
      */
-    public void getAllMessages(Callback<List<Voicemail>> callback);
+    public void getMessages(List<String> sourceData, VoicemailSink sink,
+            Callback<Void> callback);
 
     /**
      * An enumeration of the different operations to perform for a given Voicmeail.
@@ -21,6 +21,7 @@ import com.example.android.voicemail.common.core.Voicemail;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -106,6 +107,23 @@ public class VvmStoreActions {
         return map;
     }
 
+    /**
+     * Counts the actions of each {@link VvmStore.Operation} in a given collection of actions.
+     * <p>
+     * Comparing the counts before and after {@link ActionPlanner#compact(List)} shows how much work
+     * the compaction saved.
+     */
+    public static Map<VvmStore.Operation, Integer> countOperations(
+            Collection<VvmStore.Action> actions) {
+        Map<VvmStore.Operation, Integer> map =
+                new EnumMap<VvmStore.Operation, Integer>(VvmStore.Operation.class);
+        for (VvmStore.Action action : actions) {
+            Integer count = map.get(action.getOperation());
+            map.put(action.getOperation(), count == null ? 1 : count + 1);
+        }
+        return map;
+    }
+
     public static boolean areActionsEqual(Collection<VvmStore.Action> first,
             Collection<VvmStore.Action> second) {
         return buildOperationMap(first).equals(buildOperationMap(second));
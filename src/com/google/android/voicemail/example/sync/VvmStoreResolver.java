@@ -34,6 +34,18 @@ public interface VvmStoreResolver {
     public void resolveFullSync(VvmStore local, VvmStore remote,
             VvmStoreResolver.ResolvePolicy policy, Callback<Void> result);
 
+    /**
+     * Perform a resolve between local and remote stores restricted to the voicemails with the
+     * supplied source data, using the supplied resolve policy.
+     * <p>
+     * Only the given voicemails are fetched from either store, so this is much cheaper than a full
+     * resolve when you know which voicemails have changed, such as when an OMTP sync SMS names the
+     * message that was deposited. A voicemail that is found on only one of the stores is resolved
+     * exactly as it would be by a full resolve.
+     */
+    public void resolveSpecificMessages(VvmStore local, VvmStore remote, List<String> sourceData,
+            VvmStoreResolver.ResolvePolicy policy, Callback<Void> result);
+
     /**
      * A policy for performing the resolution between two VvmStore objects.
      * <p>
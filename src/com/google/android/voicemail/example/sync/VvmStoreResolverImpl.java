@@ -16,19 +16,88 @@
 package com.google.android.voicemail.example.sync;
 
 import com.google.android.voicemail.example.callbacks.Callback;
+import com.google.android.voicemail.example.storage.RemoteStateJournal;
 
 import com.example.android.voicemail.common.core.Voicemail;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
 
 /**
  * Concrete implementation of the {@link VvmStoreResolver} interface.
  */
 public final class VvmStoreResolverImpl implements VvmStoreResolver {
+    /** The journal of remote state shared by all resolves, or null if none is kept. */
+    @Nullable private final RemoteStateJournal mJournal;
+    /** Decides which of the missing voicemail contents are downloaded by a resolve. */
+    private final DownloadPolicy mDownloadPolicy;
+    /** The counters of the last successful resolve. */
+    private final AtomicReference<SyncStatistics> mLastStatistics =
+            new AtomicReference<SyncStatistics>();
+
+    /** Creates a resolver that resolves all the voicemails it is given on every resolve. */
+    public VvmStoreResolverImpl() {
+        this(null);
+    }
+
+    /**
+     * Creates a resolver that uses the given journal to skip the voicemails that have not changed
+     * since the last resolve.
+     */
+    public VvmStoreResolverImpl(@Nullable RemoteStateJournal journal) {
+        this(journal, DownloadPolicies.downloadAll());
+    }
+
+    /**
+     * Creates a resolver that uses the given journal to skip the voicemails that have not changed
+     * since the last resolve, and only downloads the voicemail contents selected by the given
+     * policy.
+     */
+    public VvmStoreResolverImpl(@Nullable RemoteStateJournal journal,
+            DownloadPolicy downloadPolicy) {
+        mJournal = journal;
+        mDownloadPolicy = downloadPolicy;
+    }
+
     @Override
     public void resolveFullSync(VvmStore local, VvmStore remote,
             VvmStoreResolver.ResolvePolicy policy, final Callback<Void> result) {
-        new InnerVvmStoreResolver(local, remote, policy, result).resolve();
+        resolve(local, remote, null, policy, result);
+    }
+
+    @Override
+    public void resolveSpecificMessages(VvmStore local, VvmStore remote, List<String> sourceData,
+            VvmStoreResolver.ResolvePolicy policy, Callback<Void> result) {
+        resolve(local, remote, sourceData, policy, result);
+    }
+
+    private void resolve(VvmStore local, VvmStore remote, @Nullable List<String> sourceData,
+            VvmStoreResolver.ResolvePolicy policy, Callback<Void> result) {
+        new InnerVvmStoreResolver(local, remote, sourceData, policy, mJournal,
+                mDownloadPolicy, new StatisticsCallback(), result).resolve();
+    }
+
+    /**
+     * Returns the counters of the last resolve that completed successfully, or null if there has
+     * not been any.
+     */
+    @Nullable
+    public SyncStatistics getLastSyncStatistics() {
+        return mLastStatistics.get();
+    }
+
+    private class StatisticsCallback implements Callback<SyncStatistics> {
+        @Override
+        public void onSuccess(SyncStatistics result) {
+            mLastStatistics.set(result);
+        }
+
+        @Override
+        public void onFailure(Exception error) {
+            // Statistics are only reported for successful resolves.
+        }
     }
 
     /**
@@ -48,8 +117,10 @@ public final class VvmStoreResolverImpl implements VvmStoreResolver {
         @Override
         public void resolveRemoteOnlyMessage(Voicemail remoteMessage,
                 List<VvmStore.Action> localActions, List<VvmStore.Action> remoteActions) {
-            // Voicemails that are available remotely but missing locally need to be inserted.
+            // Voicemails that are available remotely but missing locally need to be inserted, and
+            // their content fetched once inserted.
             localActions.add(VvmStoreActions.insert(remoteMessage));
+            localActions.add(VvmStoreActions.fetchContent(remoteMessage));
         }
 
         @Override
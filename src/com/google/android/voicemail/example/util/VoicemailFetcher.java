@@ -17,10 +17,14 @@ package com.google.android.voicemail.example.util;
 
 import com.google.android.voicemail.example.callbacks.Callback;
 import com.google.android.voicemail.example.core.VoicemailPayload;
+import com.google.android.voicemail.example.core.VoicemailPayloadSink;
 
 import com.example.android.voicemail.common.core.Voicemail;
+import com.example.android.voicemail.common.core.VoicemailSink;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Interface to interact with a remote voicemail system. This includes fetching of voicemail
@@ -29,18 +33,64 @@ import java.util.List;
  */
 public interface VoicemailFetcher {
     /**
-     * Fetches voicemail metadata for all messages.
+     * Fetches voicemail metadata for all messages, handing each voicemail to the sink as it is
+     * parsed. The callback is notified once all of them have been handed.
+     * <p>
+     * The metadata of a message other than its read state never changes, so the fetcher may only
+     * fetch the read state of the messages whose provider identifiers are known: the voicemails
+     * handed for them may only have their provider identifier and read state set.
+     *
+     * @param knownProviderData the provider identifiers of the messages whose metadata the caller
+     *            already has
      */
-    public void fetchAllVoicemails(Callback<List<Voicemail>> callback);
+    public void fetchAllVoicemails(Set<String> knownProviderData, VoicemailSink sink,
+            Callback<Void> callback);
+
+    /**
+     * Fetches voicemail metadata for the messages with the given provider identifiers only,
+     * handing each voicemail to the sink as it is parsed. The callback is notified once all of
+     * them have been handed.
+     * <p>
+     * Identifiers that do not match a voicemail on the server are ignored.
+     */
+    public void fetchVoicemails(List<String> providerData, VoicemailSink sink,
+            Callback<Void> callback);
 
     /**
      * Downloads payload for the voicemail with the given provider identifier from the server.
      */
     public void fetchVoicemailPayload(String providerData, Callback<VoicemailPayload> callback);
 
+    /**
+     * Downloads the payload for the voicemail with the given provider identifier from the server,
+     * writing it to the sink as it is decoded instead of holding it in memory.
+     * <p>
+     * The callback receives the number of bytes written to the sink.
+     */
+    public void streamVoicemailPayload(String providerData, VoicemailPayloadSink sink,
+            Callback<Long> callback);
+
+    /**
+     * Downloads the payloads for the voicemails with the given provider identifiers from the
+     * server, in a single request.
+     * <p>
+     * The result maps each identifier to its payload. Identifiers that do not match a voicemail on
+     * the server, or whose voicemail has no audio content, are missing from the result.
+     */
+    public void fetchVoicemailPayloads(List<String> providerData,
+            Callback<Map<String, VoicemailPayload>> callback);
+
     /** Mark the given list of voicemails as read. */
     public void markMessagesAsRead(Callback<Void> callback, Voicemail... voicemails);
 
     /** Mark the given list of voicemails as deleted. */
     public void markMessagesAsDeleted(Callback<Void> callback, Voicemail... voicemails);
+
+    /**
+     * Ends the sessions of the fetches of voicemail metadata and payloads started by this fetcher
+     * that are still in progress, which then fail, and makes the ones started afterwards fail.
+     * <p>
+     * May be called from any thread, e.g., to stop a fetch that has been given up.
+     */
+    public void cancel();
 }